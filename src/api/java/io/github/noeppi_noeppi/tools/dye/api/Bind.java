@@ -29,6 +29,8 @@ import java.lang.invoke.MethodType;
  *     this must be removed by {@code signature.dropParameterTypes(0, 1)}</li>
  *     <li>Optional {@link Dynamic}: An object that contains additional information about the call point. This should
  *     be left out if possible, so it does not need to be computed.</li>
+ *     <li>Optional {@code Object...}: The {@link #args() static arguments} of the binding. The metafactory must be
+ *     declared with variable arity.</li>
  * </ul>
  * 
  * The metafactory must return a {@link CallSite} which is then permanently bound to that one call to the dynamic method
@@ -42,4 +44,45 @@ public @interface Bind {
      * The reference to the metafactory for this dynamically bound method.
      */
     String value();
+
+    /**
+     * Constant arguments passed to the metafactory. They are part of the INVOKEDYNAMIC instruction, so a
+     * metafactory shared by many bound methods can specialize on them at link time, without decoding the
+     * method name. The metafactory must accept them with a trailing {@code Object...} parameter.
+     */
+    Arg[] args() default {};
+
+    /**
+     * A single static argument. Exactly one of the values must be set.
+     */
+    @Target({})
+    @Retention(RetentionPolicy.CLASS)
+    @interface Arg {
+
+        /**
+         * Passed as a {@link String}.
+         */
+        String stringValue() default "";
+
+        /**
+         * Passed as an {@link Integer}.
+         */
+        int intValue() default 0;
+
+        /**
+         * Passed as a {@link Long}.
+         */
+        long longValue() default 0;
+
+        /**
+         * Passed as a {@link Class}. Primitive classes are allowed.
+         */
+        Class<?> classValue() default void.class;
+
+        /**
+         * A reference to a static method, in the same format as the metafactory reference. Passed as a
+         * {@link java.lang.invoke.MethodHandle}.
+         */
+        String methodValue() default "";
+    }
 }
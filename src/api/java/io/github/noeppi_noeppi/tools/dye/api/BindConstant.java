@@ -0,0 +1,37 @@
+package io.github.noeppi_noeppi.tools.dye.api;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Binds a method to a dynamically computed constant. Every call to the method is replaced with a
+ * <a href="https://openjdk.org/jeps/309">dynamic constant</a>, that is computed once per calling class and then
+ * treated as a true constant by the JIT. Unlike {@link Bind @Bind}, there is no call site involved.
+ *
+ * A method annotated with {@code @BindConstant} must be {@code static} and {@code native}, must not take any
+ * arguments and must not return {@code void}.
+ *
+ * The {@code @BindConstant} must contain a reference to the bootstrap method, that computes the constant. That
+ * reference is the internal class name where the bootstrap method is located, a semicolon and the bootstrap method
+ * name and descriptor.
+ *
+ * The bootstrap method must be a {@code public} {@code static} method that accepts the following arguments and
+ * returns the value of the constant as a reference type. Primitive values are returned boxed.
+ * <ul>
+ *     <li>{@link MethodHandles.Lookup}: Lookup context of the calling class</li>
+ *     <li>{@link String}: The original method's name</li>
+ *     <li>{@link Class}: The return type of the original method</li>
+ * </ul>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.CLASS)
+public @interface BindConstant {
+
+    /**
+     * The reference to the bootstrap method for this constant.
+     */
+    String value();
+}
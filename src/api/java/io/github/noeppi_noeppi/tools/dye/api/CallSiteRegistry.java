@@ -0,0 +1,229 @@
+package io.github.noeppi_noeppi.tools.dye.api;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MutableCallSite;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Keeps track of the call sites created for dynamically bound methods. Call sites are only recorded, when the
+ * registry is enabled in the dye loader ({@code -Ddye.registry=true}) while the calling class is transformed.
+ * Call sites are held by weak references, so classes can still be unloaded.
+ *
+ * Mutable call sites can be relinked in bulk through {@link #retarget(Dye.MethodTarget, Function)}. The registry
+ * counts these relinks, so frequent relinking of the same target, which causes repeated deoptimization of the
+ * calling code, can be spotted in {@link #stats()}.
+ */
+public class CallSiteRegistry {
+
+    private static final Map<Dye.MethodTarget, Entry> ENTRIES = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<CallSite> QUEUE = new ReferenceQueue<>();
+
+    private CallSiteRegistry() {
+
+    }
+
+    /**
+     * Records a new call site. This is called by the dye loader after the metafactory returned.
+     */
+    public static void register(Dye.MethodTarget target, Location location, CallSite callSite) {
+        expunge();
+        Entry entry = ENTRIES.computeIfAbsent(target, Entry::new);
+        synchronized (entry) {
+            entry.refs.add(new Ref(entry, location, callSite));
+        }
+    }
+
+    /**
+     * Gets all bound methods with at least one recorded call site, that was not yet collected.
+     */
+    public static Set<Dye.MethodTarget> targets() {
+        expunge();
+        Set<Dye.MethodTarget> targets = new HashSet<>();
+        for (Entry entry : ENTRIES.values()) {
+            synchronized (entry) {
+                if (!entry.refs.isEmpty()) targets.add(entry.target);
+            }
+        }
+        return Collections.unmodifiableSet(targets);
+    }
+
+    /**
+     * Gets all live call sites for the given bound method.
+     */
+    public static List<Site> sites(Dye.MethodTarget target) {
+        expunge();
+        Entry entry = ENTRIES.get(target);
+        if (entry == null) return List.of();
+        synchronized (entry) {
+            return entry.sites();
+        }
+    }
+
+    /**
+     * Relinks all live {@link MutableCallSite mutable call sites} for the given bound method. The function is
+     * called for every site and returns the new target or {@code null} to keep the current target. All new targets
+     * are published in a single {@link MutableCallSite#syncAll(MutableCallSite[])} batch.
+     *
+     * @return The amount of call sites that were relinked.
+     */
+    public static int retarget(Dye.MethodTarget target, Function<? super Site, MethodHandle> relink) {
+        expunge();
+        Entry entry = ENTRIES.get(target);
+        if (entry == null) return 0;
+        synchronized (entry) {
+            List<MutableCallSite> relinked = new ArrayList<>();
+            for (Site site : entry.sites()) {
+                if (site.callSite() instanceof MutableCallSite mutable) {
+                    MethodHandle handle = relink.apply(site);
+                    if (handle != null) {
+                        mutable.setTarget(handle);
+                        relinked.add(mutable);
+                    }
+                }
+            }
+            if (!relinked.isEmpty()) {
+                MutableCallSite.syncAll(relinked.toArray(MutableCallSite[]::new));
+                entry.relinked(relinked.size());
+            }
+            return relinked.size();
+        }
+    }
+
+    /**
+     * Gets statistics for the given bound method.
+     */
+    public static Stats stats(Dye.MethodTarget target) {
+        expunge();
+        Entry entry = ENTRIES.get(target);
+        if (entry == null) return new Stats(target, 0, 0, 0, 0, 0);
+        synchronized (entry) {
+            return entry.stats();
+        }
+    }
+
+    /**
+     * Gets statistics for all bound methods ordered by the amount of relinks, the most relinked first.
+     */
+    public static List<Stats> stats() {
+        expunge();
+        List<Stats> stats = new ArrayList<>();
+        for (Entry entry : ENTRIES.values()) {
+            synchronized (entry) {
+                stats.add(entry.stats());
+            }
+        }
+        stats.sort(Comparator.comparingLong(Stats::relinks).reversed().thenComparing(Stats::target));
+        return stats;
+    }
+
+    private static void expunge() {
+        Reference<? extends CallSite> ref;
+        while ((ref = QUEUE.poll()) != null) {
+            Entry entry = ((Ref) ref).entry;
+            synchronized (entry) {
+                entry.refs.remove(ref);
+            }
+        }
+    }
+
+    /**
+     * The location of a call site in the calling code.
+     *
+     * @param type The internal name of the calling class.
+     * @param method The name and descriptor of the calling method.
+     * @param file The source file or {@code null} if no information is available.
+     * @param line The line number in the source file or {@code -1} if no information is available.
+     */
+    public static record Location(String type, String method, String file, int line) {
+
+        @Override
+        public String toString() {
+            return type + ";" + method + " (" + (file == null ? "unknown" : file) + ":" + line + ")";
+        }
+    }
+
+    /**
+     * A live call site for a bound method.
+     */
+    public static record Site(Dye.MethodTarget target, Location location, CallSite callSite) {}
+
+    /**
+     * Statistics of a bound method.
+     *
+     * @param sites The amount of live call sites.
+     * @param mutableSites The amount of live call sites, that can be relinked.
+     * @param relinks The amount of call sites relinked since the first call site was recorded.
+     * @param batches The amount of calls to {@link #retarget(Dye.MethodTarget, Function)} that relinked something.
+     * @param peakRelinksPerSecond The most call sites relinked within one second.
+     */
+    public static record Stats(Dye.MethodTarget target, int sites, int mutableSites, long relinks, long batches, long peakRelinksPerSecond) {}
+
+    private static class Entry {
+
+        private static final long WINDOW = 1_000_000_000L;
+
+        private final Dye.MethodTarget target;
+        private final Set<Ref> refs = new HashSet<>();
+        private long relinks = 0;
+        private long batches = 0;
+        private long windowStart = 0;
+        private long windowRelinks = 0;
+        private long peakRelinks = 0;
+
+        private Entry(Dye.MethodTarget target) {
+            this.target = target;
+        }
+
+        private List<Site> sites() {
+            List<Site> sites = new ArrayList<>(this.refs.size());
+            for (Ref ref : this.refs) {
+                CallSite callSite = ref.get();
+                if (callSite != null) sites.add(new Site(this.target, ref.location, callSite));
+            }
+            return sites;
+        }
+
+        private void relinked(int count) {
+            long now = System.nanoTime();
+            if (this.batches == 0 || now - this.windowStart >= WINDOW) {
+                this.windowStart = now;
+                this.windowRelinks = 0;
+            }
+            this.relinks += count;
+            this.batches += 1;
+            this.windowRelinks += count;
+            this.peakRelinks = Math.max(this.peakRelinks, this.windowRelinks);
+        }
+
+        private Stats stats() {
+            int sites = 0;
+            int mutableSites = 0;
+            for (Ref ref : this.refs) {
+                CallSite callSite = ref.get();
+                if (callSite != null) {
+                    sites += 1;
+                    if (callSite instanceof MutableCallSite) mutableSites += 1;
+                }
+            }
+            return new Stats(this.target, sites, mutableSites, this.relinks, this.batches, this.peakRelinks);
+        }
+    }
+
+    private static class Ref extends WeakReference<CallSite> {
+
+        private final Entry entry;
+        private final Location location;
+
+        private Ref(Entry entry, Location location, CallSite callSite) {
+            super(callSite, QUEUE);
+            this.entry = entry;
+            this.location = location;
+        }
+    }
+}
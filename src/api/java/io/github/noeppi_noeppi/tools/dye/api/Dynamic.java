@@ -1,6 +1,7 @@
 package io.github.noeppi_noeppi.tools.dye.api;
 
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 
 /**
  * Contains some more information on where an INVOKEDYNAMIC instruction comes from when the metafactory
@@ -10,5 +11,14 @@ import java.lang.invoke.MethodHandle;
  * @param line The line number in the source file where the method was called or {@code -1} if no information is available.
  */
 public record Dynamic(MethodHandle source, String file, int line) {
-    
+
+    /**
+     * Bootstrap method for the dynamic constants that are passed to metafactories. This is referenced by
+     * transformed classes and should not be called directly. It is located in the API, so classes that were
+     * transformed ahead of time don't need the dye loader at runtime.
+     */
+    // First 3 arguments are required because java
+    public static Dynamic bootstrap(MethodHandles.Lookup lookup, String name, Class<?> type, MethodHandle source, String file, int line) {
+        return new Dynamic(source, file.isEmpty() ? null : file, line);
+    }
 }
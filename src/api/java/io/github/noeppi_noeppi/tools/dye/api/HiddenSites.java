@@ -0,0 +1,113 @@
+package io.github.noeppi_noeppi.tools.dye.api;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lets metafactories provide the code of a bound method as bytecode instead of composing method handles. The code
+ * is placed in a static method of a hidden class, that is a nestmate of the calling class, so it can access private
+ * members of the caller's nest. The call site is a {@link ConstantCallSite} over a direct handle to that method,
+ * which the JIT inlines like a regular static call.
+ *
+ * <pre>{@code
+ * public static CallSite metafactory(MethodHandles.Lookup lookup, String name, MethodType type) throws IllegalAccessException {
+ *     return HiddenSites.create(lookup, "mymod/Util;" + name, type, (mv, t) -> {
+ *         mv.visitVarInsn(Opcodes.ILOAD, 0);
+ *         mv.visitInsn(Opcodes.ICONST_1);
+ *         mv.visitInsn(Opcodes.IADD);
+ *         mv.visitInsn(Opcodes.IRETURN);
+ *     });
+ * }
+ * }</pre>
+ *
+ * Hidden classes are cached per nest host, target and type, so all call sites for the same target and type in a
+ * nest share one hidden class.
+ *
+ * Unlike the rest of the API, this class needs <a href="https://asm.ow2.io/">ASM</a> ({@code org.ow2.asm:asm}) at
+ * compile time and at runtime. It is declared as dependency of the API. ModLauncher environments already provide it.
+ */
+public class HiddenSites {
+
+    private static final String METHOD = "invoke";
+
+    private static final ClassValue<Map<String, MethodHandle>> CACHE = new ClassValue<>() {
+        @Override
+        protected Map<String, MethodHandle> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private HiddenSites() {
+
+    }
+
+    /**
+     * Creates a call site, that runs the code generated by {@code body}.
+     *
+     * @param lookup The lookup passed to the metafactory. It must have full privilege access.
+     * @param target Identifies the generated code. Call sites in the same nest with the same target and type reuse
+     *               the hidden class created for the first one, without calling {@code body} again. Usually the
+     *               bound method.
+     * @param type The type of the call site.
+     * @param body Generates the code for the static method. The parameters of the call site are the first local
+     *             variables. Frames and maximums are computed.
+     */
+    public static CallSite create(MethodHandles.Lookup lookup, String target, MethodType type, Body body) throws IllegalAccessException {
+        Class<?> host = lookup.lookupClass().getNestHost();
+        String key = target + "\t" + type.toMethodDescriptorString();
+        Map<String, MethodHandle> cache = CACHE.get(host);
+        MethodHandle handle = cache.get(key);
+        if (handle == null) {
+            handle = define(lookup, type, body);
+            MethodHandle existing = cache.putIfAbsent(key, handle);
+            if (existing != null) handle = existing;
+        }
+        return new ConstantCallSite(handle);
+    }
+
+    private static MethodHandle define(MethodHandles.Lookup lookup, MethodType type, Body body) throws IllegalAccessException {
+        Class<?> caller = lookup.lookupClass();
+        String name = caller.getName().replace('.', '/') + "$DyeSite";
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected ClassLoader getClassLoader() {
+                return caller.getClassLoader();
+            }
+        };
+        cw.visit(Opcodes.V16, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC, name, null, "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, METHOD, type.toMethodDescriptorString(), null, null);
+        mv.visitCode();
+        body.generate(mv, type);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        MethodHandles.Lookup hidden = lookup.defineHiddenClass(cw.toByteArray(), true, MethodHandles.Lookup.ClassOption.NESTMATE);
+        try {
+            return hidden.findStatic(hidden.lookupClass(), METHOD, type);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Generated method not found in hidden class", e);
+        }
+    }
+
+    /**
+     * Generates the code of a bound method.
+     */
+    @FunctionalInterface
+    public interface Body {
+
+        /**
+         * Generates the code. {@link MethodVisitor#visitCode()} was already called, the body must only emit
+         * the instructions including the return.
+         */
+        void generate(MethodVisitor mv, MethodType type);
+    }
+}
@@ -0,0 +1,140 @@
+package io.github.noeppi_noeppi.tools.dye.api;
+
+import java.lang.invoke.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Polymorphic inline cache for bound methods, that dispatch on the runtime class of their first argument. This
+ * should be returned from a metafactory:
+ *
+ * <pre>{@code
+ * public static CallSite metafactory(MethodHandles.Lookup lookup, String name, MethodType type) {
+ *     return InlineCache.create(lookup, name, type, cls -> findImplementation(cls, name, type));
+ * }
+ * }</pre>
+ *
+ * Every call site starts without any cached class. On a call with a new receiver class, the resolver is queried for
+ * the target and a class check for the receiver class is chained in front of the current target. So monomorphic and
+ * bimorphic call sites become a single or two class checks, which the JIT can inline. Once more than {@code depth}
+ * classes were seen, the call site goes megamorphic and looks up targets in a {@link ClassValue} instead.
+ */
+public class InlineCache {
+
+    /**
+     * Default amount of receiver classes cached in a call site before it goes megamorphic.
+     */
+    public static final int DEFAULT_DEPTH = 4;
+
+    private static final MethodHandle CHECK_CLASS;
+    private static final MethodHandle MISS;
+    private static final MethodHandle MEGAMORPHIC;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            CHECK_CLASS = lookup.findStatic(InlineCache.class, "checkClass", MethodType.methodType(boolean.class, Class.class, Object.class));
+            MISS = lookup.findVirtual(Site.class, "miss", MethodType.methodType(Object.class, Object[].class));
+            MEGAMORPHIC = lookup.findVirtual(Site.class, "megamorphic", MethodType.methodType(MethodHandle.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to initialise dye inline cache", e);
+        }
+    }
+
+    private InlineCache() {
+
+    }
+
+    /**
+     * Creates an inline cache with the {@link #DEFAULT_DEPTH default depth}.
+     *
+     * @see #create(MethodHandles.Lookup, String, MethodType, Function, int)
+     */
+    public static CallSite create(MethodHandles.Lookup lookup, String name, MethodType type, Function<Class<?>, MethodHandle> resolver) {
+        return create(lookup, name, type, resolver, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Creates an inline cache.
+     *
+     * @param type The type of the call site. It must have at least one parameter of a reference type, which is the
+     *             receiver to dispatch on.
+     * @param resolver Gets the target for a receiver class. The target is adapted to the type of the call site with
+     *                 {@link MethodHandle#asType(MethodType)}. It is called once per receiver class and call site
+     *                 while the call site is polymorphic, and once per receiver class after it went megamorphic.
+     * @param depth The amount of receiver classes to cache in the call site before it goes megamorphic.
+     */
+    public static CallSite create(MethodHandles.Lookup lookup, String name, MethodType type, Function<Class<?>, MethodHandle> resolver, int depth) {
+        if (type.parameterCount() == 0 || type.parameterType(0).isPrimitive()) {
+            throw new IllegalArgumentException("Inline cache needs a receiver of reference type: " + name + type);
+        }
+        if (depth < 0) throw new IllegalArgumentException("Negative inline cache depth: " + depth);
+        return new Site(type, Objects.requireNonNull(resolver), depth);
+    }
+
+    private static boolean checkClass(Class<?> expected, Object receiver) {
+        return receiver != null && receiver.getClass() == expected;
+    }
+
+    private static class Site extends MutableCallSite {
+
+        private final Function<Class<?>, MethodHandle> resolver;
+        private final int depth;
+        private volatile ClassValue<MethodHandle> megamorphic;
+        // Classes that already have a guard. Threads that missed concurrently with the same class must not chain
+        // another guard. The guards already hold these classes, so this does not keep anything else alive.
+        private final Map<Class<?>, MethodHandle> cached = new HashMap<>();
+
+        private Site(MethodType type, Function<Class<?>, MethodHandle> resolver, int depth) {
+            super(type);
+            this.resolver = resolver;
+            this.depth = depth;
+            this.setTarget(MISS.bindTo(this).asCollector(Object[].class, type.parameterCount()).asType(type));
+        }
+
+        private MethodHandle resolve(Class<?> cls) {
+            MethodHandle target = this.resolver.apply(cls);
+            if (target == null) throw new IllegalStateException("No target for receiver " + cls.getName() + " of type " + this.type());
+            return target.asType(this.type());
+        }
+
+        // Called whenever no cached class matched
+        private Object miss(Object[] args) throws Throwable {
+            if (args[0] == null) throw new NullPointerException("Receiver is null");
+            MethodHandle target;
+            synchronized (this) {
+                if (this.megamorphic != null) {
+                    target = this.megamorphic.get(args[0].getClass());
+                } else if (this.cached.containsKey(args[0].getClass())) {
+                    target = this.cached.get(args[0].getClass());
+                } else if (this.cached.size() < this.depth) {
+                    Class<?> cls = args[0].getClass();
+                    target = this.resolve(cls);
+                    MethodHandle test = CHECK_CLASS.bindTo(cls).asType(MethodType.methodType(boolean.class, this.type().parameterType(0)));
+                    this.setTarget(MethodHandles.guardWithTest(test, target, this.getTarget()));
+                    this.cached.put(cls, target);
+                } else {
+                    this.megamorphic = new ClassValue<>() {
+                        @Override
+                        protected MethodHandle computeValue(Class<?> type) {
+                            return Site.this.resolve(type);
+                        }
+                    };
+                    target = this.megamorphic.get(args[0].getClass());
+                    // Fetch the target from the class value and invoke it
+                    MethodHandle lookup = MEGAMORPHIC.bindTo(this).asType(MethodType.methodType(MethodHandle.class, this.type().parameterType(0)));
+                    lookup = MethodHandles.dropArguments(lookup, 1, this.type().dropParameterTypes(0, 1).parameterList());
+                    this.setTarget(MethodHandles.foldArguments(MethodHandles.exactInvoker(this.type()), lookup));
+                    this.cached.clear();
+                }
+            }
+            return target.invokeWithArguments(args);
+        }
+
+        private MethodHandle megamorphic(Object receiver) {
+            return this.megamorphic.get(receiver.getClass());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package io.github.noeppi_noeppi.tools.dye.api;
+
+import java.lang.invoke.*;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hooks, that run around the implementation of a bound method. Interceptors are registered for a bound method and
+ * fused with the implementation into a single method handle for each call site. Call sites are created by the
+ * metafactory of the bound method:
+ *
+ * <pre>{@code
+ * public static CallSite metafactory(MethodHandles.Lookup lookup, String name, MethodType type) throws ReflectiveOperationException {
+ *     return Interceptors.create(lookup, type, TARGET, lookup.findStatic(Impl.class, name, type));
+ * }
+ * }</pre>
+ *
+ * There are three kinds of interceptors:
+ *
+ * <ul>
+ *     <li>{@link #before(Dye.MethodTarget, MethodHandle) before}: Called with the arguments before the implementation.</li>
+ *     <li>{@link #after(Dye.MethodTarget, MethodHandle) after}: Called with the result after the implementation returned
+ *     normally, may replace the result.</li>
+ *     <li>{@link #always(Dye.MethodTarget, MethodHandle) always}: Called after the implementation, even if it threw
+ *     an exception, like a {@code finally} block.</li>
+ * </ul>
+ *
+ * Before interceptors run in the order they were registered. After and always interceptors run in the reverse order,
+ * so the first registered interceptor is the outermost. The call sites are {@link MutableCallSite mutable call sites},
+ * that are relinked in a single batch when interceptors are registered later. While nothing is registered, the call
+ * sites have no overhead.
+ */
+public class Interceptors {
+
+    private static final Map<Dye.MethodTarget, Chain> CHAINS = new ConcurrentHashMap<>();
+
+    private Interceptors() {
+
+    }
+
+    /**
+     * Creates a call site for a bound method, that runs all interceptors registered for it around the implementation.
+     *
+     * @param target The bound method.
+     * @param implementation The implementation of the bound method. It is adapted to the type of the call site with
+     *                       {@link MethodHandle#asType(MethodType)}.
+     */
+    public static CallSite create(MethodHandles.Lookup lookup, MethodType type, Dye.MethodTarget target, MethodHandle implementation) {
+        Chain chain = chain(target);
+        synchronized (chain) {
+            Site site = new Site(type, implementation.asType(type));
+            site.setTarget(chain.fuse(site));
+            chain.sites.add(new WeakReference<>(site));
+            return site;
+        }
+    }
+
+    /**
+     * Registers an interceptor, that is called before the implementation. It receives the arguments of the call,
+     * or any prefix of them, and returns {@code void}.
+     */
+    public static void before(Dye.MethodTarget target, MethodHandle interceptor) {
+        chain(target).add(Kind.BEFORE, interceptor);
+    }
+
+    /**
+     * Registers an interceptor, that is called after the implementation returned normally. It receives the result
+     * of the call, followed by the arguments of the call or any prefix of them, and returns the new result. For
+     * methods returning {@code void}, it only receives the arguments and returns {@code void}.
+     */
+    public static void after(Dye.MethodTarget target, MethodHandle interceptor) {
+        chain(target).add(Kind.AFTER, interceptor);
+    }
+
+    /**
+     * Registers an interceptor, that is called after the implementation, even if it threw an exception. The interceptor
+     * has the signature of a cleanup handler in {@link MethodHandles#tryFinally(MethodHandle, MethodHandle)}: It
+     * receives the thrown exception or {@code null}, the result (if the method does not return {@code void}) and any
+     * prefix of the arguments. It returns the new result. Exceptions are rethrown after the interceptor returned.
+     */
+    public static void always(Dye.MethodTarget target, MethodHandle interceptor) {
+        chain(target).add(Kind.ALWAYS, interceptor);
+    }
+
+    private static Chain chain(Dye.MethodTarget target) {
+        return CHAINS.computeIfAbsent(target, Chain::new);
+    }
+
+    private enum Kind { BEFORE, AFTER, ALWAYS }
+
+    private record Interceptor(Kind kind, MethodHandle handle) {}
+
+    private static class Chain {
+
+        private final Dye.MethodTarget target;
+        private final List<Interceptor> interceptors = new ArrayList<>();
+        private final List<WeakReference<Site>> sites = new ArrayList<>();
+
+        private Chain(Dye.MethodTarget target) {
+            this.target = target;
+        }
+
+        private synchronized void add(Kind kind, MethodHandle handle) {
+            this.interceptors.add(new Interceptor(kind, handle));
+            List<MutableCallSite> sites = new ArrayList<>();
+            List<MethodHandle> targets = new ArrayList<>();
+            try {
+                Iterator<WeakReference<Site>> itr = this.sites.iterator();
+                while (itr.hasNext()) {
+                    Site site = itr.next().get();
+                    if (site == null) {
+                        itr.remove();
+                    } else {
+                        targets.add(this.fuse(site));
+                        sites.add(site);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Don't leave an interceptor, that does not fit the call sites
+                this.interceptors.remove(this.interceptors.size() - 1);
+                throw new IllegalArgumentException("Invalid " + kind.name().toLowerCase() + " interceptor for " + this.target + ": " + handle, e);
+            }
+            for (int i = 0; i < sites.size(); i++) {
+                sites.get(i).setTarget(targets.get(i));
+            }
+            if (!sites.isEmpty()) {
+                MutableCallSite.syncAll(sites.toArray(MutableCallSite[]::new));
+            }
+        }
+
+        private MethodHandle fuse(Site site) {
+            MethodType type = site.type();
+            Class<?> ret = type.returnType();
+            MethodHandle handle = site.implementation;
+            // Innermost first: after interceptors in reverse order wrap the implementation
+            for (int i = this.interceptors.size() - 1; i >= 0; i--) {
+                Interceptor interceptor = this.interceptors.get(i);
+                if (interceptor.kind() != Kind.AFTER) continue;
+                if (ret == void.class) {
+                    MethodHandle after = interceptor.handle().asType(interceptor.handle().type().changeReturnType(void.class));
+                    handle = MethodHandles.foldArguments(padArguments(after, type, 0), handle);
+                } else {
+                    handle = MethodHandles.foldArguments(padArguments(interceptor.handle(), type.insertParameterTypes(0, ret), 1), handle);
+                }
+            }
+            for (int i = this.interceptors.size() - 1; i >= 0; i--) {
+                Interceptor interceptor = this.interceptors.get(i);
+                if (interceptor.kind() == Kind.BEFORE) {
+                    MethodHandle before = interceptor.handle().asType(argumentPrefix(type, interceptor.handle().type().parameterCount()).changeReturnType(void.class));
+                    handle = MethodHandles.foldArguments(handle, before);
+                }
+            }
+            for (int i = this.interceptors.size() - 1; i >= 0; i--) {
+                Interceptor interceptor = this.interceptors.get(i);
+                if (interceptor.kind() == Kind.ALWAYS) {
+                    int fixed = ret == void.class ? 1 : 2;
+                    MethodHandle cleanup = interceptor.handle();
+                    if (cleanup.type().parameterCount() < fixed) throw new IllegalArgumentException("Interceptor takes too few arguments: " + cleanup.type());
+                    MethodType cleanupType = argumentPrefix(type, cleanup.type().parameterCount() - fixed).insertParameterTypes(0, Throwable.class);
+                    if (fixed == 2) cleanupType = cleanupType.insertParameterTypes(1, ret);
+                    handle = MethodHandles.tryFinally(handle, cleanup.asType(cleanupType));
+                }
+            }
+            return handle.asType(type);
+        }
+
+        // Adapts the parameters after the fixed ones to the type, so the handle can take a prefix of them
+        private static MethodHandle padArguments(MethodHandle handle, MethodType type, int fixed) {
+            int count = handle.type().parameterCount();
+            if (count < fixed) throw new IllegalArgumentException("Interceptor takes too few arguments: " + handle.type());
+            MethodHandle adapted = handle.asType(argumentPrefix(type, count));
+            return MethodHandles.dropArguments(adapted, count, type.parameterList().subList(count, type.parameterCount()));
+        }
+
+        // The first count parameters of the type, with the same return type
+        private static MethodType argumentPrefix(MethodType type, int count) {
+            if (count > type.parameterCount()) throw new IllegalArgumentException("Interceptor takes too many arguments: " + count + " for " + type);
+            return type.dropParameterTypes(count, type.parameterCount());
+        }
+    }
+
+    private static class Site extends MutableCallSite {
+
+        private final MethodHandle implementation;
+
+        private Site(MethodType type, MethodHandle implementation) {
+            super(type);
+            this.implementation = implementation;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package io.github.noeppi_noeppi.tools.dye.api;
+
+import java.lang.invoke.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named runtime toggles for bound methods. A call site created by {@link #create(MethodHandles.Lookup, String, MethodType, Toggle, MethodHandle, MethodHandle)}
+ * calls one of two targets depending on the state of a toggle. The state is not checked on every call, instead the
+ * call site is guarded by a {@link SwitchPoint}, so the JIT compiles only the active target. Flipping a toggle
+ * invalidates the switch point and all call sites of the toggle relink on their next call.
+ *
+ * <pre>{@code
+ * public static CallSite metafactory(MethodHandles.Lookup lookup, String name, MethodType type) throws ReflectiveOperationException {
+ *     return Toggles.create(lookup, name, type, Toggles.get("mymod.debug"), lookup.findStatic(Hooks.class, "debug", type));
+ * }
+ * }</pre>
+ *
+ * Flipping a toggle deoptimizes all code that was compiled with its call sites, so toggles should not be flipped
+ * frequently.
+ */
+public class Toggles {
+
+    private static final Map<String, Toggle> TOGGLES = new ConcurrentHashMap<>();
+    private static final MethodHandle RELINK;
+
+    static {
+        try {
+            RELINK = MethodHandles.lookup().findVirtual(Site.class, "relink", MethodType.methodType(MethodHandle.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to initialise dye toggles", e);
+        }
+    }
+
+    private Toggles() {
+
+    }
+
+    /**
+     * Gets the toggle with the given name. Toggles are created disabled when first requested.
+     */
+    public static Toggle get(String name) {
+        return TOGGLES.computeIfAbsent(name, Toggle::new);
+    }
+
+    /**
+     * Sets the state of multiple toggles. The switch points of all toggles, that changed, are invalidated together.
+     */
+    public static void set(Map<String, Boolean> states) {
+        List<SwitchPoint> invalidated = new ArrayList<>();
+        for (Map.Entry<String, Boolean> entry : states.entrySet()) {
+            SwitchPoint old = get(entry.getKey()).update(entry.getValue());
+            if (old != null) invalidated.add(old);
+        }
+        if (!invalidated.isEmpty()) {
+            SwitchPoint.invalidateAll(invalidated.toArray(SwitchPoint[]::new));
+        }
+    }
+
+    /**
+     * Creates a call site for a hook, that is only called while the toggle is enabled. While it is disabled, the
+     * call site does nothing and returns the default value of its return type.
+     */
+    public static CallSite create(MethodHandles.Lookup lookup, String name, MethodType type, Toggle toggle, MethodHandle hook) {
+        return create(lookup, name, type, toggle, hook, MethodHandles.empty(type));
+    }
+
+    /**
+     * Creates a call site that calls {@code enabled} while the toggle is enabled and {@code disabled} otherwise.
+     * Both targets are adapted to the type of the call site with {@link MethodHandle#asType(MethodType)}.
+     */
+    public static CallSite create(MethodHandles.Lookup lookup, String name, MethodType type, Toggle toggle, MethodHandle enabled, MethodHandle disabled) {
+        return new Site(type, toggle, enabled.asType(type), disabled.asType(type));
+    }
+
+    /**
+     * A named toggle.
+     */
+    public static class Toggle {
+
+        private final String name;
+        private volatile boolean enabled = false;
+        private SwitchPoint switchPoint = new SwitchPoint();
+
+        private Toggle(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return this.name;
+        }
+
+        public boolean isEnabled() {
+            return this.enabled;
+        }
+
+        public void enable() {
+            this.set(true);
+        }
+
+        public void disable() {
+            this.set(false);
+        }
+
+        public void set(boolean enabled) {
+            SwitchPoint old = this.update(enabled);
+            if (old != null) SwitchPoint.invalidateAll(new SwitchPoint[]{ old });
+        }
+
+        // Returns the switch point to invalidate or null if the state did not change
+        private synchronized SwitchPoint update(boolean enabled) {
+            if (this.enabled == enabled) return null;
+            SwitchPoint old = this.switchPoint;
+            this.switchPoint = new SwitchPoint();
+            this.enabled = enabled;
+            return old;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + "=" + this.enabled;
+        }
+    }
+
+    private static class Site extends MutableCallSite {
+
+        private final Toggle toggle;
+        private final MethodHandle enabled;
+        private final MethodHandle disabled;
+        private final MethodHandle fallback;
+
+        private Site(MethodType type, Toggle toggle, MethodHandle enabled, MethodHandle disabled) {
+            super(type);
+            this.toggle = toggle;
+            this.enabled = enabled;
+            this.disabled = disabled;
+            // Relink the call site and invoke the new target
+            MethodHandle relink = MethodHandles.dropArguments(RELINK.bindTo(this), 0, type.parameterList());
+            this.fallback = MethodHandles.foldArguments(MethodHandles.exactInvoker(type), relink);
+            this.relink();
+        }
+
+        private MethodHandle relink() {
+            synchronized (this.toggle) {
+                MethodHandle target = this.toggle.enabled ? this.enabled : this.disabled;
+                this.setTarget(this.toggle.switchPoint.guardWithTest(target, this.fallback));
+                return target;
+            }
+        }
+    }
+}
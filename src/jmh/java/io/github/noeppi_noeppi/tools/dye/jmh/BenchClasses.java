@@ -0,0 +1,140 @@
+package io.github.noeppi_noeppi.tools.dye.jmh;
+
+import io.github.noeppi_noeppi.tools.dye.api.Dye;
+import io.github.noeppi_noeppi.tools.dye.loader.internal.DyeTransformer;
+import org.objectweb.asm.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates synthetic classes for the benchmarks. Bound methods are static {@code (I)I} methods named
+ * {@code call<n>}, spread over owner classes {@code <package>/Bound<n>} with {@link #METHODS_PER_OWNER} methods each.
+ * The package defaults to {@code bench}.
+ */
+public class BenchClasses {
+
+    public static final String PACKAGE = "bench";
+    public static final String FACTORY = "bench/Factory";
+    public static final Dye.MethodTarget META_FACTORY = new Dye.MethodTarget(FACTORY, "bootstrap", DyeTransformer.META_FACTORY_DESCRIPTOR);
+    public static final int METHODS_PER_OWNER = 1000;
+    public static final String DESCRIPTOR = "(I)I";
+    
+    private static final Handle LAMBDA_FACTORY = new Handle(
+            Opcodes.H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;",
+            false
+    );
+
+    /**
+     * Class shapes used by the transformer benchmarks, for callers with 20 methods.
+     */
+    public enum Shape {
+        PLAIN(0, 0),
+        BOUND(5, 0),
+        REFERENCES(0, 40);
+        
+        public final int boundCalls;
+        public final int references;
+
+        Shape(int boundCalls, int references) {
+            this.boundCalls = boundCalls;
+            this.references = references;
+        }
+    }
+
+    public static Dye.MethodTarget binding(int idx) {
+        return binding(PACKAGE, idx);
+    }
+
+    public static Dye.MethodTarget binding(String pkg, int idx) {
+        return new Dye.MethodTarget(ownerName(pkg, idx / METHODS_PER_OWNER), "call" + (idx % METHODS_PER_OWNER), DESCRIPTOR);
+    }
+
+    public static Map<Dye.MethodTarget, Dye.MethodTarget> bindings(int count) {
+        Map<Dye.MethodTarget, Dye.MethodTarget> map = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            map.put(binding(i), META_FACTORY);
+        }
+        return map;
+    }
+
+    public static String ownerName(String pkg, int owner) {
+        return pkg + "/Bound" + owner;
+    }
+
+    /**
+     * Gets the number of owner classes needed for the given number of bindings.
+     */
+    public static int owners(int bindings) {
+        return (bindings + METHODS_PER_OWNER - 1) / METHODS_PER_OWNER;
+    }
+
+    /**
+     * Generates an owner class with {@code @Bind} methods for the bindings {@code owner * METHODS_PER_OWNER} up to
+     * the given total number of bindings.
+     */
+    public static byte[] owner(int owner, int bindings) {
+        return owner(PACKAGE, owner, bindings);
+    }
+
+    public static byte[] owner(String pkg, int owner, int bindings) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V16, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, ownerName(pkg, owner), null, "java/lang/Object", null);
+        cw.visitSource("Generated.java", null);
+        int count = Math.min(METHODS_PER_OWNER, bindings - (owner * METHODS_PER_OWNER));
+        for (int i = 0; i < count; i++) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_NATIVE, "call" + i, DESCRIPTOR, null, null);
+            AnnotationVisitor av = mv.visitAnnotation(DyeTransformer.BIND_TYPE, false);
+            av.visit("value", META_FACTORY.toString());
+            av.visitEnd();
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Generates a class with static {@code (I)I} methods, that each do some unrelated calls. The given number of
+     * calls to bound methods and method references to bound methods is distributed over the methods. The targets are
+     * chosen randomly from the first {@code bindings} bindings.
+     */
+    public static byte[] caller(String name, int methods, int boundCalls, int references, int bindings, Random random) {
+        return caller(name, methods, boundCalls, references, PACKAGE, bindings, random);
+    }
+
+    public static byte[] caller(String name, int methods, int boundCalls, int references, String pkg, int bindings, Random random) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V16, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        cw.visitSource("Generated.java", null);
+        int line = 1;
+        for (int m = 0; m < methods; m++) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "method" + m, DESCRIPTOR, null, null);
+            mv.visitCode();
+            Label start = new Label();
+            mv.visitLabel(start);
+            mv.visitLineNumber(line++, start);
+            mv.visitVarInsn(Opcodes.ILOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "abs", DESCRIPTOR, false);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "reverse", DESCRIPTOR, false);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "bitCount", DESCRIPTOR, false);
+            for (int i = m; i < boundCalls; i += methods) {
+                Dye.MethodTarget target = binding(pkg, random.nextInt(bindings));
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, target.type(), target.name(), target.descriptor(), false);
+            }
+            for (int i = m; i < references; i += methods) {
+                Dye.MethodTarget target = binding(pkg, random.nextInt(bindings));
+                mv.visitInvokeDynamicInsn("applyAsInt", "()Ljava/util/function/IntUnaryOperator;", LAMBDA_FACTORY,
+                        Type.getMethodType(DESCRIPTOR), new Handle(Opcodes.H_INVOKESTATIC, target.type(), target.name(), target.descriptor(), false), Type.getMethodType(DESCRIPTOR));
+                mv.visitInsn(Opcodes.POP);
+            }
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "signum", DESCRIPTOR, false);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
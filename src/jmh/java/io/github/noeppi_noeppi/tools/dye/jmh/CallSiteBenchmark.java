@@ -0,0 +1,102 @@
+package io.github.noeppi_noeppi.tools.dye.jmh;
+
+import io.github.noeppi_noeppi.tools.dye.jmh.callsite.*;
+import io.github.noeppi_noeppi.tools.dye.loader.DyeLoader;
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady state cost of calls to bound methods compared to direct calls. The calls are made from {@link Calls},
+ * which is transformed in memory by a {@link DyeLoader}. If the INVOKEDYNAMIC instructions inline as well as
+ * direct calls, each bound case should be as fast as the matching {@code direct} case.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CallSiteBenchmark {
+
+    private Cases cases;
+    private int x = 17;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        ClassLoader parent = CallSiteBenchmark.class.getClassLoader();
+        DyeLoader loader = new DyeLoader();
+        loader.from(new ClassReader(TransformingClassLoader.read(parent, Bound.class.getName())));
+        ClassLoader transforming = new TransformingClassLoader(parent, loader, Set.of(
+                Bound.class.getName(), Factories.class.getName(), Calls.class.getName()
+        ));
+        this.cases = (Cases) transforming.loadClass(Calls.class.getName()).getConstructor().newInstance();
+    }
+
+    @Benchmark
+    public int directStatic() {
+        return this.cases.directStatic(this.x);
+    }
+
+    @Benchmark
+    public int directInstance() {
+        return this.cases.directInstance(this.x);
+    }
+
+    @Benchmark
+    public int directReference() {
+        return this.cases.directReference(this.x);
+    }
+
+    @Benchmark
+    public int staticConstant() {
+        return this.cases.staticConstant(this.x);
+    }
+
+    @Benchmark
+    public int staticMutable() {
+        return this.cases.staticMutable(this.x);
+    }
+
+    @Benchmark
+    public int staticVolatile() {
+        return this.cases.staticVolatile(this.x);
+    }
+
+    @Benchmark
+    public int staticDynamic() {
+        return this.cases.staticDynamic(this.x);
+    }
+
+    @Benchmark
+    public int instanceConstant() {
+        return this.cases.instanceConstant(this.x);
+    }
+
+    @Benchmark
+    public int instanceMutable() {
+        return this.cases.instanceMutable(this.x);
+    }
+
+    @Benchmark
+    public int instanceVolatile() {
+        return this.cases.instanceVolatile(this.x);
+    }
+
+    @Benchmark
+    public int instanceDynamic() {
+        return this.cases.instanceDynamic(this.x);
+    }
+
+    @Benchmark
+    public int staticReference() {
+        return this.cases.staticReference(this.x);
+    }
+
+    @Benchmark
+    public int instanceReference() {
+        return this.cases.instanceReference(this.x);
+    }
+}
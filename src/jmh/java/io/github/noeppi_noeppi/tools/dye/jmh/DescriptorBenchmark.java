@@ -0,0 +1,28 @@
+package io.github.noeppi_noeppi.tools.dye.jmh;
+
+import io.github.noeppi_noeppi.tools.dye.loader.internal.DescriptorParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DescriptorBenchmark {
+
+    @Param({
+            "()V",
+            "(I)I",
+            "(Ljava/lang/String;IJD)Ljava/lang/Object;",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Lio/github/noeppi_noeppi/tools/dye/api/Dynamic;)Ljava/lang/invoke/CallSite;"
+    })
+    public String descriptor;
+
+    @Benchmark
+    public DescriptorParser.Result parse() {
+        return DescriptorParser.parse(this.descriptor);
+    }
+}
@@ -0,0 +1,45 @@
+package io.github.noeppi_noeppi.tools.dye.jmh;
+
+import io.github.noeppi_noeppi.tools.dye.loader.DyeLoader;
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discovery of bindings from classes with {@code @Bind} methods through {@link DyeLoader#from(ClassReader)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DiscoveryBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int bindings;
+    
+    private List<ClassReader> owners;
+
+    @Setup
+    public void setup() {
+        this.owners = new ArrayList<>();
+        for (int i = 0; i < BenchClasses.owners(this.bindings); i++) {
+            this.owners.add(new ClassReader(BenchClasses.owner(i, this.bindings)));
+        }
+    }
+
+    @Benchmark
+    public DyeLoader fromClassReader() {
+        DyeLoader loader = new DyeLoader();
+        for (ClassReader owner : this.owners) {
+            loader.from(owner);
+        }
+        // Bindings are published on the first read
+        loader.size();
+        return loader;
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.noeppi_noeppi.tools.dye.jmh;
+
+import io.github.noeppi_noeppi.tools.dye.api.Dye;
+import io.github.noeppi_noeppi.tools.dye.loader.DyeLoader;
+import io.github.noeppi_noeppi.tools.dye.loader.internal.BindTable;
+import io.github.noeppi_noeppi.tools.dye.loader.internal.DyeTransformer;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transformation of a single class with 20 methods, with the tree API as used by ModLauncher, with the streaming
+ * path used for raw bytes and with the constant pool prefilter only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TransformerBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int bindings;
+    
+    @Param({"PLAIN", "BOUND", "REFERENCES"})
+    public BenchClasses.Shape shape;
+    
+    private BindTable table;
+    private DyeLoader loader;
+    private byte[] cls;
+
+    @Setup
+    public void setup() {
+        Map<Dye.MethodTarget, Dye.MethodTarget> map = BenchClasses.bindings(this.bindings);
+        this.table = BindTable.of(map);
+        this.loader = new DyeLoader();
+        this.loader.register(map);
+        this.cls = BenchClasses.caller("bench/Caller", 20, this.shape.boundCalls, this.shape.references, this.bindings, new Random(42));
+    }
+
+    @Benchmark
+    public byte[] tree() {
+        ClassNode node = new ClassNode();
+        new ClassReader(this.cls).accept(node, 0);
+        DyeTransformer.transform(node, this.table);
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        node.accept(writer);
+        return writer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] streaming() {
+        return this.loader.transform(this.cls);
+    }
+
+    @Benchmark
+    public boolean prefilter() {
+        return this.table.filter().matches(this.cls);
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.noeppi_noeppi.tools.dye.jmh.callsite;
+
+import io.github.noeppi_noeppi.tools.dye.api.Bind;
+
+/**
+ * Bound methods for the call site benchmarks. All of them end up calling {@link #staticImpl(int)} or
+ * {@link #instanceImpl(int)}, which are also called directly for comparison.
+ */
+public class Bound {
+
+    private final int offset = 7;
+
+    public static int staticImpl(int x) {
+        return x * 31 + 7;
+    }
+
+    public int instanceImpl(int x) {
+        return x * 31 + this.offset;
+    }
+
+    @Bind(Factories.CONSTANT)
+    public static native int staticConstant(int x);
+
+    @Bind(Factories.MUTABLE)
+    public static native int staticMutable(int x);
+
+    @Bind(Factories.VOLATILE)
+    public static native int staticVolatile(int x);
+
+    @Bind(Factories.DYNAMIC)
+    public static native int staticDynamic(int x);
+
+    @Bind(Factories.CONSTANT)
+    public final native int instanceConstant(int x);
+
+    @Bind(Factories.MUTABLE)
+    public final native int instanceMutable(int x);
+
+    @Bind(Factories.VOLATILE)
+    public final native int instanceVolatile(int x);
+
+    @Bind(Factories.DYNAMIC)
+    public final native int instanceDynamic(int x);
+}
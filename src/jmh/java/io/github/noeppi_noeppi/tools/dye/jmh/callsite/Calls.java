@@ -0,0 +1,79 @@
+package io.github.noeppi_noeppi.tools.dye.jmh.callsite;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Calls the {@link Bound} methods. This class is transformed by dye before the benchmarks use it.
+ */
+public class Calls implements Cases {
+
+    private final Bound bound = new Bound();
+    private final IntUnaryOperator directRef = Bound::staticImpl;
+    private final IntUnaryOperator staticRef = Bound::staticConstant;
+    private final IntUnaryOperator instanceRef = this.bound::instanceConstant;
+
+    @Override
+    public int directStatic(int x) {
+        return Bound.staticImpl(x);
+    }
+
+    @Override
+    public int directInstance(int x) {
+        return this.bound.instanceImpl(x);
+    }
+
+    @Override
+    public int directReference(int x) {
+        return this.directRef.applyAsInt(x);
+    }
+
+    @Override
+    public int staticConstant(int x) {
+        return Bound.staticConstant(x);
+    }
+
+    @Override
+    public int staticMutable(int x) {
+        return Bound.staticMutable(x);
+    }
+
+    @Override
+    public int staticVolatile(int x) {
+        return Bound.staticVolatile(x);
+    }
+
+    @Override
+    public int staticDynamic(int x) {
+        return Bound.staticDynamic(x);
+    }
+
+    @Override
+    public int instanceConstant(int x) {
+        return this.bound.instanceConstant(x);
+    }
+
+    @Override
+    public int instanceMutable(int x) {
+        return this.bound.instanceMutable(x);
+    }
+
+    @Override
+    public int instanceVolatile(int x) {
+        return this.bound.instanceVolatile(x);
+    }
+
+    @Override
+    public int instanceDynamic(int x) {
+        return this.bound.instanceDynamic(x);
+    }
+
+    @Override
+    public int staticReference(int x) {
+        return this.staticRef.applyAsInt(x);
+    }
+
+    @Override
+    public int instanceReference(int x) {
+        return this.instanceRef.applyAsInt(x);
+    }
+}
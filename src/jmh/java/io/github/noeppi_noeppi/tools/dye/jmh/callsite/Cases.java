@@ -0,0 +1,25 @@
+package io.github.noeppi_noeppi.tools.dye.jmh.callsite;
+
+/**
+ * All call site shapes measured by the {@link io.github.noeppi_noeppi.tools.dye.jmh.CallSiteBenchmark}. This is
+ * loaded by the parent loader, while the implementation in {@link Calls} is transformed by dye.
+ */
+public interface Cases {
+
+    int directStatic(int x);
+    int directInstance(int x);
+    int directReference(int x);
+
+    int staticConstant(int x);
+    int staticMutable(int x);
+    int staticVolatile(int x);
+    int staticDynamic(int x);
+
+    int instanceConstant(int x);
+    int instanceMutable(int x);
+    int instanceVolatile(int x);
+    int instanceDynamic(int x);
+
+    int staticReference(int x);
+    int instanceReference(int x);
+}
@@ -0,0 +1,47 @@
+package io.github.noeppi_noeppi.tools.dye.jmh.callsite;
+
+import io.github.noeppi_noeppi.tools.dye.api.Dynamic;
+
+import java.lang.invoke.*;
+
+/**
+ * Metafactories for the {@link Bound} methods. Static bound methods are bound to {@link Bound#staticImpl(int)},
+ * instance methods to {@link Bound#instanceImpl(int)}.
+ */
+public class Factories {
+
+    private static final String TYPE = "io/github/noeppi_noeppi/tools/dye/jmh/callsite/Factories;";
+    private static final String DESCRIPTOR = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;";
+    private static final String DESCRIPTOR_D = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Lio/github/noeppi_noeppi/tools/dye/api/Dynamic;)Ljava/lang/invoke/CallSite;";
+
+    public static final String CONSTANT = TYPE + "constant" + DESCRIPTOR;
+    public static final String MUTABLE = TYPE + "mutable" + DESCRIPTOR;
+    public static final String VOLATILE = TYPE + "volatileSite" + DESCRIPTOR;
+    public static final String DYNAMIC = TYPE + "dynamic" + DESCRIPTOR_D;
+
+    private static final MethodType IMPL = MethodType.methodType(int.class, int.class);
+
+    public static CallSite constant(MethodHandles.Lookup lookup, String name, MethodType type) throws ReflectiveOperationException {
+        return new ConstantCallSite(target(lookup, type));
+    }
+
+    public static CallSite mutable(MethodHandles.Lookup lookup, String name, MethodType type) throws ReflectiveOperationException {
+        return new MutableCallSite(target(lookup, type));
+    }
+
+    public static CallSite volatileSite(MethodHandles.Lookup lookup, String name, MethodType type) throws ReflectiveOperationException {
+        return new VolatileCallSite(target(lookup, type));
+    }
+
+    public static CallSite dynamic(MethodHandles.Lookup lookup, String name, MethodType type, Dynamic dynamic) throws ReflectiveOperationException {
+        return new ConstantCallSite(target(lookup, type));
+    }
+
+    private static MethodHandle target(MethodHandles.Lookup lookup, MethodType type) throws ReflectiveOperationException {
+        if (type.parameterCount() == 2) {
+            return lookup.findVirtual(Bound.class, "instanceImpl", IMPL).asType(type);
+        } else {
+            return lookup.findStatic(Bound.class, "staticImpl", IMPL).asType(type);
+        }
+    }
+}
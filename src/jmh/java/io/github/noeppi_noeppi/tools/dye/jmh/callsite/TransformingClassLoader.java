@@ -0,0 +1,46 @@
+package io.github.noeppi_noeppi.tools.dye.jmh.callsite;
+
+import io.github.noeppi_noeppi.tools.dye.loader.DyeLoader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ * Loads the given classes from the resources of the parent loader and transforms them with dye. All other
+ * classes are loaded by the parent.
+ */
+public class TransformingClassLoader extends ClassLoader {
+
+    private final DyeLoader loader;
+    private final Set<String> classes;
+
+    public TransformingClassLoader(ClassLoader parent, DyeLoader loader, Set<String> classes) {
+        super("dye-benchmark", parent);
+        this.loader = loader;
+        this.classes = classes;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!this.classes.contains(name)) return super.loadClass(name, resolve);
+        synchronized (this.getClassLoadingLock(name)) {
+            Class<?> cls = this.findLoadedClass(name);
+            if (cls == null) {
+                byte[] data = this.loader.transform(read(this.getParent(), name));
+                cls = this.defineClass(name, data, 0, data.length);
+            }
+            if (resolve) this.resolveClass(cls);
+            return cls;
+        }
+    }
+
+    public static byte[] read(ClassLoader loader, String name) throws ClassNotFoundException {
+        try (InputStream in = loader.getResourceAsStream(name.replace('.', '/') + ".class")) {
+            if (in == null) throw new ClassNotFoundException(name);
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+}
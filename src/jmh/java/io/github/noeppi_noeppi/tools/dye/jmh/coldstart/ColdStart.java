@@ -0,0 +1,117 @@
+package io.github.noeppi_noeppi.tools.dye.jmh.coldstart;
+
+import com.sun.management.ThreadMXBean;
+import io.github.noeppi_noeppi.tools.dye.loader.DyeLoader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Measures the cost of dye at startup for a directory of jars, for example generated by {@link ModPackGenerator}.
+ * Bindings are discovered from all jars with {@link DyeLoader#from(ClassLoader)}, then every class is passed through
+ * {@link DyeLoader#transform(byte[])} one after another, like they would be when loaded. This should run in a fresh
+ * JVM, so the results include class loading and JIT warmup of dye itself.
+ *
+ * <pre>
+ * ColdStart &lt;dir&gt;
+ * </pre>
+ */
+public class ColdStart {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: ColdStart <dir>");
+            System.exit(1);
+            return;
+        }
+        List<Path> jars;
+        try (var files = Files.list(Path.of(args[0]))) {
+            jars = files.filter(f -> f.getFileName().toString().endsWith(".jar")).sorted().toList();
+        }
+        // Reading the classes is not part of the measurement, the game would do that anyway
+        List<byte[]> classes = new ArrayList<>();
+        for (Path jar : jars) {
+            try (ZipFile zip = new ZipFile(jar.toFile())) {
+                for (ZipEntry entry : Collections.list(zip.entries())) {
+                    if (entry.getName().endsWith(".class")) {
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            classes.add(in.readAllBytes());
+                        }
+                    }
+                }
+            }
+        }
+        URL[] urls = new URL[jars.size()];
+        for (int i = 0; i < jars.size(); i++) urls[i] = jars.get(i).toUri().toURL();
+
+        // The classes stay on the heap during the measurement, so the peak is reported above the heap in use before
+        System.gc();
+        long baseHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) baseHeap += pool.getUsage().getUsed();
+            pool.resetPeakUsage();
+        }
+        Sample start = Sample.take();
+        DyeLoader loader = new DyeLoader();
+        loader.applySystemProperties();
+        try (URLClassLoader classLoader = new URLClassLoader("cold-start", urls, ClassLoader.getPlatformClassLoader())) {
+            loader.from(classLoader);
+        }
+        Sample discovered = Sample.take();
+        int transformed = 0;
+        for (byte[] cls : classes) {
+            if (loader.transform(cls) != cls) transformed += 1;
+        }
+        Sample end = Sample.take();
+        loader.disableCache();
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peakHeap += pool.getPeakUsage().getUsed();
+        }
+        System.out.println("Jars:           " + jars.size());
+        System.out.println("Bindings:       " + loader.size());
+        System.out.println("Classes:        " + classes.size() + " (" + transformed + " transformed)");
+        System.out.println("Discovery:      " + discovered.since(start));
+        System.out.println("Transformation: " + end.since(discovered));
+        System.out.println("Total:          " + end.since(start));
+        System.out.println("Peak heap:      " + (Math.max(0, peakHeap - baseHeap) / (1024 * 1024)) + " MiB above " + (baseHeap / (1024 * 1024)) + " MiB before start");
+    }
+
+    private record Sample(long wall, long cpu, long allocated) {
+
+        public static Sample take() {
+            ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+            com.sun.management.OperatingSystemMXBean os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+            return new Sample(System.nanoTime(), os.getProcessCpuTime(), allocated(threads));
+        }
+
+        // Java 21 can report allocations of terminated threads as well, older
+        // versions miss the allocations of the discovery pool.
+        private static long allocated(ThreadMXBean threads) {
+            try {
+                return (long) ThreadMXBean.class.getMethod("getTotalThreadAllocatedBytes").invoke(threads);
+            } catch (ReflectiveOperationException e) {
+                return Arrays.stream(threads.getThreadAllocatedBytes(threads.getAllThreadIds())).filter(b -> b > 0).sum();
+            }
+        }
+
+        public String since(Sample start) {
+            return String.format("%6d ms wall, %6d ms cpu, %6d MiB allocated",
+                    (this.wall - start.wall) / 1000000, (this.cpu - start.cpu) / 1000000, (this.allocated - start.allocated) / (1024 * 1024));
+        }
+    }
+}
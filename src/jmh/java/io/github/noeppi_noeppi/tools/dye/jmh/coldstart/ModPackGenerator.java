@@ -0,0 +1,111 @@
+package io.github.noeppi_noeppi.tools.dye.jmh.coldstart;
+
+import io.github.noeppi_noeppi.tools.dye.api.Dye;
+import io.github.noeppi_noeppi.tools.dye.jmh.BenchClasses;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates a synthetic mod pack for the {@link ColdStart} harness. Every jar contains owner classes with
+ * {@code @Bind} methods, the metadata files that the annotation processor would generate and classes that call
+ * the bound methods of their jar. The output only depends on the options, so runs can be compared.
+ *
+ * <pre>
+ * ModPackGenerator &lt;dir&gt; [--jars &lt;n&gt;] [--classes &lt;n&gt;] [--methods &lt;n&gt;] [--bindings &lt;n&gt;]
+ *                  [--bound-calls &lt;per class&gt;] [--references &lt;per class&gt;] [--no-index] [--seed &lt;n&gt;]
+ * </pre>
+ *
+ * Densities are averages per class and may be fractional. With {@code --no-index} only {@code dye-bind.txt} is
+ * generated, like jars built with older versions of the annotation processor.
+ */
+public class ModPackGenerator {
+
+    public static void main(String[] args) throws IOException {
+        Path output = null;
+        int jars = 50;
+        int classes = 200;
+        int methods = 10;
+        int bindings = 100;
+        double boundCalls = 0.5;
+        double references = 0.1;
+        boolean index = true;
+        long seed = 42;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--jars" -> jars = Integer.parseInt(args[++i]);
+                case "--classes" -> classes = Integer.parseInt(args[++i]);
+                case "--methods" -> methods = Integer.parseInt(args[++i]);
+                case "--bindings" -> bindings = Integer.parseInt(args[++i]);
+                case "--bound-calls" -> boundCalls = Double.parseDouble(args[++i]);
+                case "--references" -> references = Double.parseDouble(args[++i]);
+                case "--no-index" -> index = false;
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> output = Path.of(args[i]);
+            }
+        }
+        if (output == null) {
+            System.err.println("Usage: ModPackGenerator <dir> [--jars <n>] [--classes <n>] [--methods <n>] [--bindings <n>] [--bound-calls <per class>] [--references <per class>] [--no-index] [--seed <n>]");
+            System.exit(1);
+            return;
+        }
+        
+        Files.createDirectories(output);
+        try (var files = Files.list(output)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(".jar")).toList()) {
+                Files.delete(file);
+            }
+        }
+        Random random = new Random(seed);
+        for (int jar = 0; jar < jars; jar++) {
+            generate(output.resolve("mod" + jar + ".jar"), "mod" + jar, classes, methods, bindings, boundCalls, references, index, random);
+        }
+        System.out.println("Generated " + jars + " jars with " + classes + " classes and " + bindings + " bindings each in " + output);
+    }
+
+    private static void generate(Path path, String pkg, int classes, int methods, int bindings, double boundCalls, double references, boolean index, Random random) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path); ZipOutputStream zip = new ZipOutputStream(out)) {
+            List<String> owners = new ArrayList<>();
+            for (int owner = 0; owner < BenchClasses.owners(bindings); owner++) {
+                String name = BenchClasses.ownerName(pkg, owner);
+                owners.add(name);
+                write(zip, name + ".class", BenchClasses.owner(pkg, owner, bindings));
+            }
+            write(zip, "META-INF/dye-bind.txt", String.join("\n", owners).getBytes(StandardCharsets.UTF_8));
+            if (index) {
+                StringBuilder sb = new StringBuilder("dye-bind-index 1\n");
+                List<Dye.MethodTarget> targets = new ArrayList<>();
+                for (int i = 0; i < bindings; i++) targets.add(BenchClasses.binding(pkg, i));
+                Collections.sort(targets);
+                for (Dye.MethodTarget target : targets) {
+                    sb.append(target).append("\t").append(BenchClasses.META_FACTORY).append("\n");
+                }
+                write(zip, "META-INF/dye-bind-index.txt", sb.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            for (int cls = 0; cls < classes; cls++) {
+                byte[] data = BenchClasses.caller(pkg + "/Class" + cls, methods, count(boundCalls, random), count(references, random), pkg, bindings, random);
+                write(zip, pkg + "/Class" + cls + ".class", data);
+            }
+        }
+    }
+
+    // Turns an average density into a count for a single class
+    private static int count(double density, Random random) {
+        int count = (int) density;
+        return random.nextDouble() < density - count ? count + 1 : count;
+    }
+
+    private static void write(ZipOutputStream zip, String name, byte[] data) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(0);
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+    }
+}
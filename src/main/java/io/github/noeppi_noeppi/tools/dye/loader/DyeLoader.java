@@ -1,7 +1,11 @@
 package io.github.noeppi_noeppi.tools.dye.loader;
 
+import io.github.noeppi_noeppi.tools.dye.api.CallSiteRegistry;
 import io.github.noeppi_noeppi.tools.dye.api.Dye;
-import io.github.noeppi_noeppi.tools.dye.loader.internal.DyeTransformer;
+import io.github.noeppi_noeppi.tools.dye.loader.internal.*;
+import io.github.noeppi_noeppi.tools.dye.loader.jfr.BootstrapEvent;
+import io.github.noeppi_noeppi.tools.dye.loader.jfr.DiscoveryEvent;
+import io.github.noeppi_noeppi.tools.dye.loader.jfr.TransformEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.objectweb.asm.*;
@@ -14,10 +18,16 @@ import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * Provides the logic of transforming {@link ClassNode} at runtime to use dye.
@@ -26,7 +36,192 @@ public class DyeLoader {
 
     private static final Logger LOGGER = LogManager.getLogger(DyeLoader.class);
 
-    private final Map<Dye.MethodTarget, Dye.MethodTarget> bind = new HashMap<>();
+    private static final String INDEX_HEADER = "dye-bind-index";
+    // Version 2 adds constant bindings, version 3 adds static arguments
+    private static final int INDEX_VERSION = 3;
+    
+    // Only used to check whether the event is enabled
+    private static final BootstrapEvent BOOTSTRAP_EVENT = new BootstrapEvent();
+
+    // Immutable snapshot of all bindings, read without locks. Writers synchronize on the loader
+    // and collect new bindings in pending, which is published as a new table on the next read.
+    // Building a table is linear in the number of owners, so sources are not published one by one.
+    private volatile BindTable table = BindTable.EMPTY;
+    private final Map<Dye.MethodTarget, Binding.Factory> pending = new HashMap<>();
+    private volatile boolean dirty = false;
+    private volatile TransformCache cache = null;
+    private volatile boolean events = true;
+    private volatile boolean profiling = false;
+    private volatile boolean registry = false;
+    private volatile boolean share = false;
+    private volatile boolean prelink = false;
+
+    private final LongAdder skippedClasses = new LongAdder();
+    private final LongAdder cachedClasses = new LongAdder();
+    private final LongAdder unchangedClasses = new LongAdder();
+    private final LongAdder transformedClasses = new LongAdder();
+
+    /**
+     * Applies configuration from system properties. Currently supported properties are:
+     *
+     * <ul>
+     *     <li>{@code dye.cache}: Directory for the transformation cache, see {@link #enableCache(Path, long, Duration)}.</li>
+     *     <li>{@code dye.cache.maxSize}: Maximum size of the cached classes in bytes. Defaults to 256 MiB.</li>
+     *     <li>{@code dye.cache.maxAge}: Days after which unused entries are removed from the cache. Defaults to 30.</li>
+     *     <li>{@code dye.profile}: Set to {@code true} to {@link #enableProfiling() profile call sites}.</li>
+     *     <li>{@code dye.registry}: Set to {@code true} to {@link #enableRegistry() record call sites}.</li>
+     *     <li>{@code dye.share}: Set to {@code true} to {@link #enableSharing() share call site targets}.</li>
+     *     <li>{@code dye.prelink}: Number of threads to {@link #enablePrelinking(int) link call sites ahead of time}.</li>
+     *     <li>{@code dye.profile.sampleRate}: On average, every n-th call of a profiled call site is timed. Defaults to 1024.</li>
+     * </ul>
+     */
+    public void applySystemProperties() {
+        this.applyCacheProperties();
+        if (Boolean.getBoolean("dye.profile")) {
+            this.enableProfiling();
+        }
+        if (Boolean.getBoolean("dye.registry")) {
+            this.enableRegistry();
+        }
+        if (Boolean.getBoolean("dye.share")) {
+            this.enableSharing();
+        }
+        int prelinkThreads = Integer.getInteger("dye.prelink", 0);
+        if (prelinkThreads > 0) {
+            this.enablePrelinking(prelinkThreads);
+        }
+    }
+
+    /**
+     * Applies only the {@code dye.cache} properties from {@link #applySystemProperties()}.
+     */
+    public void applyCacheProperties() {
+        String cacheDir = System.getProperty("dye.cache");
+        if (cacheDir != null && !cacheDir.isEmpty()) {
+            this.enableCache(Path.of(cacheDir), Long.getLong("dye.cache.maxSize", 256L * 1024 * 1024), Duration.ofDays(Long.getLong("dye.cache.maxAge", 30)));
+        }
+    }
+
+    /**
+     * Enables a persistent cache of transformation results in the given directory. Results are keyed by the input
+     * class and all loaded bindings, so they are reused on later launches as long as neither changes. Entries that
+     * were not used for {@code maxAge} are removed, and the least recently used classes are removed when the cache
+     * gets larger than {@code maxSize} bytes.
+     */
+    public void enableCache(Path directory, long maxSize, Duration maxAge) {
+        try {
+            TransformCache cache = TransformCache.open(directory, maxSize, maxAge);
+            if (cache != null) {
+                this.disableCache();
+                this.cache = cache;
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to open dye transformation cache in {}", directory);
+            LOGGER.error(e);
+        }
+    }
+
+    /**
+     * Disables and closes the transformation cache if one is active.
+     */
+    public void disableCache() {
+        TransformCache cache = this.cache;
+        this.cache = null;
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                LOGGER.error("Failed to close dye transformation cache");
+                LOGGER.error(e);
+            }
+        }
+    }
+
+    /**
+     * Disables {@link BootstrapEvent JFR events for call site bootstraps}. Otherwise, classes that are transformed
+     * while the event is enabled go through a bootstrap method of the dye loader, that emits the events. That makes
+     * them depend on the loader at runtime. Events for discovery and transformation are not affected by this.
+     */
+    public void disableEvents() {
+        this.events = false;
+    }
+
+    /**
+     * Disables all features, that make transformed classes go through a bootstrap method of the dye loader:
+     * {@link #disableEvents() events}, {@link #enableProfiling() profiling}, the {@link #enableRegistry() registry},
+     * {@link #enableSharing() sharing} and {@link #enablePrelinking(int) prelinking}. Classes transformed afterwards
+     * only depend on the dye API at runtime, as needed when they are written out ahead of time.
+     */
+    public void disableBootstrapFeatures() {
+        this.events = false;
+        this.profiling = false;
+        this.registry = false;
+        this.share = false;
+        this.prelink = false;
+    }
+
+    /**
+     * Enables profiling of call sites. Classes transformed afterwards count the invocations of every patched call
+     * site and sample their latency, see {@link #printProfile()}. Profiled classes depend on the loader at runtime
+     * and are never taken from or stored in the transformation cache, as the ids of their call sites are only
+     * valid in this JVM.
+     */
+    public void enableProfiling() {
+        this.profiling = true;
+    }
+
+    /**
+     * Enables the {@link CallSiteRegistry}. Call sites of classes transformed afterwards are recorded in the
+     * registry when they are linked. Like for {@link #enableProfiling() profiling}, these classes depend on the
+     * loader at runtime and bypass the transformation cache.
+     */
+    public void enableRegistry() {
+        this.registry = true;
+    }
+
+    /**
+     * Shares the targets of call sites in classes transformed afterwards. The metafactory of a bound method then
+     * runs only once per class loader and call site type, and all these call sites get a {@link java.lang.invoke.ConstantCallSite}
+     * over the same target. This is only correct if the metafactory does not depend on the calling class, so it is
+     * disabled by default. Metafactories that take a {@link io.github.noeppi_noeppi.tools.dye.api.Dynamic} or return
+     * mutable call sites are not affected. Classes transformed with sharing enabled depend on the loader at runtime.
+     */
+    public void enableSharing() {
+        this.share = true;
+    }
+
+    /**
+     * Links call sites ahead of time on the given number of background threads. When the first call site of a class
+     * transformed afterwards is bootstrapped, the metafactories of all other call sites in that class are invoked in
+     * the background with the lookup of the class. So these call sites don't pay for their metafactory when they are
+     * first reached. Metafactories may run on other threads than the calling code, so this is disabled by default.
+     * Like for {@link #enableProfiling() profiling}, these classes depend on the loader at runtime and bypass the
+     * transformation cache.
+     */
+    public void enablePrelinking(int threads) {
+        Prelinker.start(threads);
+        this.prelink = true;
+    }
+
+    /**
+     * Checks on the raw bytes of a class, whether {@link #transform(ClassNode)} could change it. This only
+     * scans the constant pool for references to classes with dynamically bound methods, so it is a lot cheaper
+     * than building a {@link ClassNode}. If the transformation cache is enabled, classes that are known to not
+     * change are skipped as well. If this returns {@code false}, the class can be skipped.
+     */
+    public boolean mayTransform(byte[] cls) {
+        BindTable table = this.table();
+        if (!table.filter().matches(cls)) {
+            this.skippedClasses.increment();
+            return false;
+        }
+        TransformCache cache = this.cache;
+        if (cache != null && cache.isUnchanged(TransformCache.key(table.fingerprint(), this.features(), cls))) {
+            this.cachedClasses.increment();
+            return false;
+        }
+        return true;
+    }
 
     /**
      * Transform a class node.
@@ -34,68 +229,284 @@ public class DyeLoader {
      * @return Whether something changed in the class node.
      */
     public boolean transform(ClassNode cls) {
-        if (DyeTransformer.transform(cls, this.bind)) {
-            LOGGER.debug("Transformed class " + cls.name + ".");
-            return true;
+        return this.transform(cls, (Supplier<byte[]>) null);
+    }
+
+    /**
+     * Transform a class node. The original bytes of the class are used to remember classes that were not
+     * changed in the transformation cache, so {@link #mayTransform(byte[])} can skip them on the next launch.
+     *
+     * @return Whether something changed in the class node.
+     */
+    public boolean transform(ClassNode cls, byte[] original) {
+        return this.transform(cls, original == null ? null : () -> original);
+    }
+
+    /**
+     * Transform a class node. Like {@link #transform(ClassNode, byte[])}, but the original bytes are only requested
+     * if the class did not change and the transformation cache is enabled. The supplier may return {@code null}
+     * if the class should not be remembered.
+     *
+     * @return Whether something changed in the class node.
+     */
+    public boolean transform(ClassNode cls, Supplier<byte[]> original) {
+        TransformEvent event = new TransformEvent();
+        event.begin();
+        BindTable table = this.table();
+        int features = this.features();
+        DyeTransformer.Result result = DyeTransformer.transform(cls, table, features);
+        if (result.changed()) {
+            LOGGER.debug("Transformed class {} with bindings version {}.", cls.name, table.version());
+            this.transformedClasses.increment();
         } else {
-            return false;
+            TransformCache cache = this.cache;
+            byte[] bytes = cache != null && original != null ? original.get() : null;
+            if (bytes != null) {
+                cache.put(TransformCache.key(table.fingerprint(), features, bytes), TransformCache.UNCHANGED);
+            }
+            this.unchangedClasses.increment();
+        }
+        commit(event, cls.name, result, false);
+        return result.changed();
+    }
+
+    /**
+     * Transforms a class given by its raw bytes. This does not build a {@link ClassNode}, so it should be preferred
+     * whenever the raw bytes are available. If the transformation cache is enabled, results are taken from and
+     * stored in the cache.
+     *
+     * @return The transformed class or the input array if nothing changed.
+     */
+    public byte[] transform(byte[] cls) {
+        BindTable table = this.table();
+        if (!table.filter().matches(cls)) {
+            this.skippedClasses.increment();
+            return cls;
+        }
+        TransformEvent event = new TransformEvent();
+        event.begin();
+        int features = this.features();
+        TransformCache cache = (features & DyeBootstrap.SITE_IDS) == 0 ? this.cache : null;
+        byte[] key = null;
+        if (cache != null) {
+            key = TransformCache.key(table.fingerprint(), features, cls);
+            byte[] cached = cache.get(key);
+            if (cached != null) {
+                this.cachedClasses.increment();
+                if (event.shouldCommit()) {
+                    commit(event, new ClassReader(cls).getClassName(), new DyeTransformer.Result(cached != TransformCache.UNCHANGED, 0, 0), true);
+                }
+                return cached == TransformCache.UNCHANGED ? cls : cached;
+            }
+        }
+        // Streams the class through the transformer without building a tree. Neither frames nor maxs
+        // are affected by the transformation, and the synthetic methods come with their maxs set.
+        ClassReader reader = new ClassReader(cls);
+        ClassWriter writer = new ClassWriter(reader, 0);
+        DyeClassVisitor visitor = new DyeClassVisitor(writer, table, features);
+        reader.accept(visitor, 0);
+        byte[] result = cls;
+        if (visitor.changed()) {
+            LOGGER.debug("Transformed class {} with bindings version {}.", reader.getClassName(), table.version());
+            this.transformedClasses.increment();
+            result = writer.toByteArray();
+        } else {
+            this.unchangedClasses.increment();
+        }
+        commit(event, reader.getClassName(), visitor.result(), false);
+        if (cache != null) {
+            cache.put(key, result == cls ? TransformCache.UNCHANGED : result);
+        }
+        return result;
+    }
+
+    // Features of the dye bootstrap, that are used for newly transformed classes
+    private int features() {
+        int features = 0;
+        if (this.events && BOOTSTRAP_EVENT.isEnabled()) features |= DyeBootstrap.EVENTS;
+        if (this.profiling) features |= DyeBootstrap.PROFILE;
+        if (this.registry) features |= DyeBootstrap.REGISTRY;
+        if (this.share) features |= DyeBootstrap.SHARE;
+        if (this.prelink) features |= DyeBootstrap.PRELINK;
+        return features;
+    }
+
+    private static void commit(TransformEvent event, String cls, DyeTransformer.Result result, boolean cached) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = cls;
+            event.sites = result.sites();
+            event.synthetics = result.synthetics();
+            event.changed = result.changed();
+            event.cached = cached;
+            event.commit();
         }
     }
 
+    /**
+     * Gets the current version of the loaded bindings. The version increases whenever new bindings are loaded
+     * or registered.
+     */
+    public long version() {
+        return this.table().version();
+    }
+
+    /**
+     * Registers additional bindings at runtime, for example from a plugin layer that is loaded late. Classes that
+     * were already transformed are not affected. The bindings are published at once, if one of them conflicts
+     * with a loaded binding, none of them are registered.
+     *
+     * @throws RuntimeException if a binding conflicts with a loaded binding.
+     */
+    public void register(Map<Dye.MethodTarget, Dye.MethodTarget> bindings) {
+        Map<Dye.MethodTarget, Binding.Factory> factories = new HashMap<>();
+        bindings.forEach((target, metaFactory) -> factories.put(target, Binding.Factory.of(metaFactory)));
+        merge(List.of(factories));
+    }
+
+    /**
+     * Registers a single binding at runtime. See {@link #register(Map)}.
+     */
+    public void register(Dye.MethodTarget target, Dye.MethodTarget metaFactory) {
+        register(Map.of(target, metaFactory));
+    }
+
     /**
      * Loads dye bindings from all modules in the given module layer for this dye loader. This relies on the
-     * {@code META-INF/dye-bind.txt} file generated by the dye annotation processor.
+     * {@code META-INF/dye-bind-index.txt} and {@code META-INF/dye-bind.txt} files generated by the dye annotation
+     * processor. The modules are processed in parallel.
      */
     public void from(ModuleLayer layer) {
-        layer.modules().forEach(this::from);
+        List<Module> modules = layer.modules().stream().sorted(Comparator.comparing(Module::getName)).toList();
+        discover(modules.stream().<Callable<Map<Dye.MethodTarget, Binding.Factory>>>map(module -> () -> read(module)).toList());
     }
 
     /**
-     * Loads dye bindings from the given module. This relies on the {@code META-INF/dye-bind.txt} file generated by
-     * the dye annotation processor.
+     * Loads dye bindings from the given module. This relies on the {@code META-INF/dye-bind-index.txt} and
+     * {@code META-INF/dye-bind.txt} files generated by the dye annotation processor.
      */
     public void from(Module module) {
-        try {
-            InputStream config = module.getResourceAsStream("/META-INF/dye-bind.txt");
-            from(config, module.getClassLoader().getName(), module.getName(), module::getResourceAsStream);
-        } catch (IOException e) {
-            LOGGER.error("Failed to load dye metadata from module {}/{}", module.getClassLoader().getName(), module.getName());
-            LOGGER.error(e);
-        }
+        merge(List.of(read(module)));
     }
 
     /**
-     * Loads dye bindings from the given class loader. This relies on the {@code META-INF/dye-bind.txt} file generated by
-     * the dye annotation processor. Tis should not be used in a modular environment.
+     * Loads dye bindings from the given class loader. This relies on the {@code META-INF/dye-bind-index.txt} and
+     * {@code META-INF/dye-bind.txt} files generated by the dye annotation processor. Tis should not be used in a
+     * modular environment. The jars found on the class loader are processed in parallel.
      */
     public void from(ClassLoader loader) {
+        List<Callable<Map<Dye.MethodTarget, Binding.Factory>>> tasks = new ArrayList<>();
         try {
-            Enumeration<URL> urls = loader.getResources("/META-INF/dye-bind.txt");
+            Enumeration<URL> urls = loader.getResources("META-INF/dye-bind.txt");
             while (urls.hasMoreElements()) {
                 URL url = urls.nextElement();
-                String location = getJarLocation(url);
+                tasks.add(() -> read(loader, url));
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to load dye metadata from loader {}", loader.getName());
+            LOGGER.error(e);
+        }
+        discover(tasks);
+    }
+
+    /**
+     * Loads dye bindings from a given {@link ClassReader}.
+     */
+    public void from(ClassReader cls) {
+        DiscoveryEvent event = new DiscoveryEvent();
+        event.begin();
+        Map<Dye.MethodTarget, Binding.Factory> bindings = new HashMap<>();
+        read(cls, null, bindings);
+        commit(event, null, cls.getClassName(), bindings.size(), false);
+        merge(List.of(bindings));
+    }
+
+    // Runs the given discovery tasks on a bounded pool and merges the partial binding
+    // tables in the order of the tasks, so the result does not depend on scheduling.
+    private void discover(List<Callable<Map<Dye.MethodTarget, Binding.Factory>>> tasks) {
+        if (tasks.isEmpty()) return;
+        long start = System.nanoTime();
+        int parallelism = Math.max(1, Math.min(tasks.size(), Integer.getInteger("dye.discovery.threads", Math.min(8, Runtime.getRuntime().availableProcessors()))));
+        List<Map<Dye.MethodTarget, Binding.Factory>> results = new ArrayList<>();
+        if (parallelism == 1) {
+            for (Callable<Map<Dye.MethodTarget, Binding.Factory>> task : tasks) {
                 try {
-                    InputStream config = url.openStream();
-                    from(config, loader.getName(), location, loader::getResourceAsStream);
-                } catch (IOException e) {
-                    LOGGER.error("Failed to load dye metadata from loader {}/{}", loader.getName(), location);
-                    LOGGER.error(e);
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throw e instanceof RuntimeException re ? re : new RuntimeException(e);
                 }
             }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                for (Future<Map<Dye.MethodTarget, Binding.Factory>> future : pool.invokeAll(tasks)) {
+                    results.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Dye: Interrupted while loading bindings", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        merge(results);
+        int count = results.stream().mapToInt(Map::size).sum();
+        LOGGER.info("Discovered {} dye bindings from {} sources in {} ms using {} threads", count, tasks.size(), (System.nanoTime() - start) / 1000000, parallelism);
+    }
+
+    private static Map<Dye.MethodTarget, Binding.Factory> read(Module module) {
+        Map<Dye.MethodTarget, Binding.Factory> bindings = new HashMap<>();
+        String loaderName = module.getClassLoader() == null ? null : module.getClassLoader().getName();
+        try {
+            InputStream index = module.getResourceAsStream("/META-INF/dye-bind-index.txt");
+            InputStream config = module.getResourceAsStream("/META-INF/dye-bind.txt");
+            read(index, config, loaderName, module.getName(), module::getResourceAsStream, bindings);
         } catch (IOException e) {
-            LOGGER.error("Failed to load dye metadata from loader {}", loader.getName());
+            LOGGER.error("Failed to load dye metadata from module {}/{}", loaderName, module.getName());
+            LOGGER.error(e);
+        }
+        return bindings;
+    }
+
+    private static Map<Dye.MethodTarget, Binding.Factory> read(ClassLoader loader, URL url) {
+        Map<Dye.MethodTarget, Binding.Factory> bindings = new HashMap<>();
+        String location = getJarLocation(url);
+        try {
+            InputStream index = openIfExists(new URL(url, "dye-bind-index.txt"));
+            InputStream config = url.openStream();
+            // Class loader resources never start with a slash
+            read(index, config, loader.getName(), location, res -> loader.getResourceAsStream(res.substring(1)), bindings);
+        } catch (IOException e) {
+            LOGGER.error("Failed to load dye metadata from loader {}/{}", loader.getName(), location);
             LOGGER.error(e);
         }
+        return bindings;
     }
 
-    private void from(InputStream config, String loader, String source, ResourceSupplier classResolver) {
+    private static void read(InputStream index, InputStream config, String loader, String source, ResourceSupplier classResolver, Map<Dye.MethodTarget, Binding.Factory> bindings) {
+        DiscoveryEvent event = new DiscoveryEvent();
+        event.begin();
+        boolean indexed = readSource(index, config, loader, source, classResolver, bindings);
+        commit(event, loader, source, bindings.size(), indexed);
+    }
+
+    // Returns whether the bindings were read from the index
+    private static boolean readSource(InputStream index, InputStream config, String loader, String source, ResourceSupplier classResolver, Map<Dye.MethodTarget, Binding.Factory> bindings) {
         try {
+            if (index != null) {
+                List<String> lines = readLines(index);
+                if (readIndex(lines, loader, source, bindings)) {
+                    if (config != null) config.close();
+                    return true;
+                }
+            }
             if (config != null) {
+                // Jars built with older versions of the annotation processor have no
+                // index, so we need to find the bindings in the listed classes.
                 LOGGER.info("Loading dye bindings from {}/{}", loader, source);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(config));
-                List<String> lines = reader.lines().toList();
-                reader.close();
-                config.close();
+                List<String> lines = readLines(config);
                 for (String clsName : lines) {
                     InputStream clsIn = classResolver.getResource("/" + clsName + ".class");
                     if (clsIn == null) {
@@ -103,7 +514,7 @@ public class DyeLoader {
                     } else {
                         ClassReader cls = new ClassReader(clsIn);
                         clsIn.close();
-                        from(cls);
+                        read(cls, classResolver, bindings);
                     }
                 }
             }
@@ -111,36 +522,137 @@ public class DyeLoader {
             LOGGER.error("Failed to load dye binds from {}/{}", loader, source);
             LOGGER.error(e);
         }
+        return false;
     }
 
-    /**
-     * Loads dye bindings from a given {@link ClassReader}.
-     */
-    public void from(ClassReader cls) {
+    private static void commit(DiscoveryEvent event, String loader, String source, int bindings, boolean indexed) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.loader = loader;
+            event.source = source;
+            event.bindings = bindings;
+            event.indexed = indexed;
+            event.commit();
+        }
+    }
+
+    private static boolean readIndex(List<String> lines, String loader, String source, Map<Dye.MethodTarget, Binding.Factory> bindings) {
+        String[] header = lines.isEmpty() ? new String[0] : lines.get(0).split(" ");
+        if (header.length != 2 || !INDEX_HEADER.equals(header[0])) {
+            LOGGER.warn("Invalid dye binding index in {}/{}, falling back to class scanning", loader, source);
+            return false;
+        }
+        int version;
+        try {
+            version = Integer.parseInt(header[1]);
+        } catch (NumberFormatException e) {
+            version = -1;
+        }
+        if (version < 1 || version > INDEX_VERSION) {
+            LOGGER.warn("Unsupported dye binding index version {} in {}/{}, falling back to class scanning", header[1], loader, source);
+            return false;
+        }
+        LOGGER.info("Loading dye bindings from index in {}/{}", loader, source);
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) continue;
+            String[] parts = line.split("\t");
+            try {
+                if (parts.length < 2) throw new IllegalArgumentException("Invalid dye binding index line: " + line);
+                // Static arguments follow the metafactory
+                List<Object> args = new ArrayList<>();
+                for (int i = 2; i < parts.length; i++) {
+                    args.add(Binding.Factory.decode(parts[i]));
+                }
+                addBinding(bindings, Dye.parse(parts[0]), new Binding.Factory(Dye.parse(parts[1]), args));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid entry in dye binding index of {}/{}: {}", loader, source, e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    // The class resolver is used to find out whether the owners of method handles in static arguments are interfaces
+    private static void read(ClassReader cls, ResourceSupplier classResolver, Map<Dye.MethodTarget, Binding.Factory> bindings) {
         cls.accept(new ClassVisitor(Opcodes.ASM9) {
             @Override
             public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
                 return new MethodVisitor(Opcodes.ASM9) {
                     @Override
                     public AnnotationVisitor visitAnnotation(String annotation, boolean visible) {
-                        if (DyeTransformer.BIND_TYPE.equals(annotation)) {
+                        if (DyeTransformer.isBindAnnotation(annotation)) {
+                            boolean constant = DyeTransformer.BIND_CONSTANT_TYPE.equals(annotation);
+                            String annotationName = constant ? "@BindConstant" : "@Bind";
+                            Dye.MethodTarget target = new Dye.MethodTarget(cls.getClassName(), name, descriptor);
+                            List<Object> args = new ArrayList<>();
                             return new AnnotationVisitor(Opcodes.ASM9) {
+                                
+                                private String factory = null;
+                                private boolean invalidArgs = false;
+                                
                                 @Override
                                 public void visit(String fieldName, Object fieldValue) {
                                     if ("value".equals(fieldName) && fieldValue instanceof String factory) {
-                                        Dye.MethodTarget target = new Dye.MethodTarget(cls.getClassName(), name, descriptor);
-                                        Dye.MethodTarget metaFactory;
-                                        try {
-                                            metaFactory = Dye.parse(factory);
-                                        } catch (IllegalArgumentException e) {
-                                            LOGGER.error("Invalid metafactory target in @Bind annotation for " + target);
-                                            return;
-                                        }
-                                        if (bind.containsKey(target) && !metaFactory.equals(bind.get(target))) {
-                                            throw new RuntimeException("Conflicting duplicate bind for " + target + ": " + bind.get(target) + " and " + metaFactory);
+                                        this.factory = factory;
+                                    }
+                                }
+
+                                @Override
+                                public AnnotationVisitor visitArray(String fieldName) {
+                                    if (!"args".equals(fieldName)) return null;
+                                    return new AnnotationVisitor(Opcodes.ASM9) {
+                                        @Override
+                                        public AnnotationVisitor visitAnnotation(String elementName, String elementType) {
+                                            return new AnnotationVisitor(Opcodes.ASM9) {
+                                                
+                                                private int values = 0;
+                                                
+                                                @Override
+                                                public void visit(String argName, Object argValue) {
+                                                    this.values += 1;
+                                                    try {
+                                                        // Only values, that are set explicitly, are present in the class file
+                                                        args.add(switch (argName) {
+                                                            case "stringValue", "intValue", "longValue", "classValue" -> argValue;
+                                                            case "methodValue" -> {
+                                                                Dye.MethodTarget method = Dye.parse((String) argValue);
+                                                                yield Binding.Factory.handle(method, isInterface(classResolver, method.type()));
+                                                            }
+                                                            default -> throw new IllegalArgumentException("Unknown static argument value: " + argName);
+                                                        });
+                                                    } catch (IllegalArgumentException e) {
+                                                        LOGGER.error("Invalid static argument in @Bind annotation for " + target + ": " + e.getMessage());
+                                                        invalidArgs = true;
+                                                    }
+                                                }
+
+                                                @Override
+                                                public void visitEnd() {
+                                                    if (this.values != 1) {
+                                                        LOGGER.error("Invalid static argument in @Bind annotation for " + target + ": exactly one value must be set");
+                                                        invalidArgs = true;
+                                                    }
+                                                }
+                                            };
                                         }
-                                        bind.put(target, metaFactory);
+                                    };
+                                }
+
+                                @Override
+                                public void visitEnd() {
+                                    if (this.factory == null || this.invalidArgs) return;
+                                    Dye.MethodTarget metaFactory;
+                                    try {
+                                        metaFactory = Dye.parse(this.factory);
+                                    } catch (IllegalArgumentException e) {
+                                        LOGGER.error("Invalid metafactory target in " + annotationName + " annotation for " + target);
+                                        return;
+                                    }
+                                    // The kind of binding follows from the descriptor of the metafactory
+                                    if (constant != Binding.isConstantFactory(metaFactory.descriptor())) {
+                                        LOGGER.error("Invalid metafactory descriptor in " + annotationName + " annotation for " + target + ": " + metaFactory.descriptor());
+                                        return;
                                     }
+                                    addBinding(bindings, target, new Binding.Factory(metaFactory, args));
                                 }
                             };
                         } else {
@@ -152,11 +664,123 @@ public class DyeLoader {
         }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
     }
 
+    // Owners, that can't be resolved, are assumed to be classes. The index records this, so it is only needed when scanning classes
+    private static boolean isInterface(ResourceSupplier classResolver, String cls) {
+        if (classResolver == null) return false;
+        try (InputStream in = classResolver.getResource("/" + cls + ".class")) {
+            return in != null && (new ClassReader(in).getAccess() & Opcodes.ACC_INTERFACE) != 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void addBinding(Map<Dye.MethodTarget, Binding.Factory> bindings, Dye.MethodTarget target, Binding.Factory factory) {
+        if (bindings.containsKey(target) && !factory.equals(bindings.get(target))) {
+            throw new RuntimeException("Conflicting duplicate bind for " + target + ": " + bindings.get(target) + " and " + factory);
+        }
+        bindings.put(target, factory);
+    }
+
+    // Adds the given bindings, merged in order, to the next table. Conflicts are reported right
+    // away, if one of the bindings conflicts, none of them are added.
+    private synchronized void merge(List<Map<Dye.MethodTarget, Binding.Factory>> bindings) {
+        Map<Dye.MethodTarget, Binding.Factory> merged = new HashMap<>();
+        for (Map<Dye.MethodTarget, Binding.Factory> map : bindings) {
+            for (Map.Entry<Dye.MethodTarget, Binding.Factory> entry : map.entrySet()) {
+                addBinding(merged, entry.getKey(), entry.getValue());
+            }
+        }
+        if (merged.isEmpty()) return;
+        for (Map.Entry<Dye.MethodTarget, Binding.Factory> entry : merged.entrySet()) {
+            Dye.MethodTarget target = entry.getKey();
+            Binding existing = this.table.get(target.type(), target.name(), target.descriptor());
+            Binding.Factory factory = existing == null ? this.pending.get(target) : existing.factory();
+            if (factory != null && !factory.equals(entry.getValue())) {
+                throw new RuntimeException("Conflicting duplicate bind for " + target + ": " + factory + " and " + entry.getValue());
+            }
+        }
+        this.pending.putAll(merged);
+        this.dirty = true;
+    }
+
+    // Gets the current table, publishing pending bindings first
+    private BindTable table() {
+        return this.dirty ? this.publish() : this.table;
+    }
+
+    // Readers keep using the previous table until the new one is complete
+    private synchronized BindTable publish() {
+        if (this.dirty) {
+            this.table = this.table.with(this.pending);
+            this.pending.clear();
+            this.dirty = false;
+        }
+        return this.table;
+    }
+
+    /**
+     * Gets the internal names of all classes that own dynamically bound methods.
+     */
+    public Set<String> owners() {
+        return this.table().owners();
+    }
+
+    /**
+     * Gets the number of loaded bindings.
+     */
+    public int size() {
+        return this.table().size();
+    }
+
     /**
      * Prints information about the loaded bindings.
      */
     public void printInfo() {
-        LOGGER.info("Loaded {} dynamic method bindings.", this.bind.size());
+        BindTable table = this.table();
+        LOGGER.info("Loaded {} dynamic method bindings (version {}).", table.size(), table.version());
+    }
+
+    /**
+     * Prints how many classes were skipped by the prefilter or the transformation cache and how many
+     * were actually transformed.
+     */
+    public void printStats() {
+        long skipped = this.skippedClasses.sum();
+        long cached = this.cachedClasses.sum();
+        long unchanged = this.unchangedClasses.sum();
+        long transformed = this.transformedClasses.sum();
+        LOGGER.info("Dye processed {} classes: {} skipped by prefilter, {} taken from cache, {} scanned without changes, {} transformed.", skipped + cached + unchanged + transformed, skipped, cached, unchanged, transformed);
+        if (this.prelink) {
+            Prelinker.printStats();
+        }
+    }
+
+    /**
+     * Prints all profiled call sites, that were invoked at least once, ordered by the number of invocations.
+     * Does nothing if {@link #enableProfiling() profiling} is disabled.
+     */
+    public void printProfile() {
+        if (!this.profiling) return;
+        List<SiteProfiler.Site> sites = SiteProfiler.sites();
+        LOGGER.info("Dye call site profile, {} sites invoked:", sites.size());
+        for (SiteProfiler.Site site : sites) {
+            long nanos = site.averageNanos();
+            LOGGER.info("  {} calls, {}: {}", site.calls(), nanos < 0 ? "not sampled" : nanos + "ns average", site);
+        }
+    }
+
+    private static List<String> readLines(InputStream in) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return reader.lines().toList();
+        }
+    }
+
+    private static InputStream openIfExists(URL url) {
+        try {
+            return url.openStream();
+        } catch (IOException e) {
+            return null;
+        }
     }
 
     private static String getJarLocation(URL url) {
@@ -0,0 +1,35 @@
+package io.github.noeppi_noeppi.tools.dye.loader.agent;
+
+import io.github.noeppi_noeppi.tools.dye.loader.DyeLoader;
+
+import java.lang.instrument.Instrumentation;
+
+/**
+ * Java agent, that applies dye to classes loaded outside of ModLauncher. Use it with
+ * {@code -javaagent:dye.jar}. ASM and log4j must be available on the classpath.
+ * Bindings are loaded from the system class loader when the agent starts. Classes that were
+ * already loaded when the agent is attached to a running JVM are not transformed.
+ */
+public class DyeAgent {
+
+    public static void premain(String args, Instrumentation instrumentation) {
+        install(instrumentation);
+    }
+
+    public static void agentmain(String args, Instrumentation instrumentation) {
+        install(instrumentation);
+    }
+
+    private static synchronized void install(Instrumentation instrumentation) {
+        DyeLoader loader = new DyeLoader();
+        loader.applySystemProperties();
+        loader.from(ClassLoader.getSystemClassLoader());
+        loader.printInfo();
+        instrumentation.addTransformer(new DyeClassTransformer(loader), false);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            loader.printStats();
+            loader.printProfile();
+            loader.disableCache();
+        }, "Dye shutdown"));
+    }
+}
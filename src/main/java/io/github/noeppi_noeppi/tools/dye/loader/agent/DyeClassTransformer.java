@@ -0,0 +1,48 @@
+package io.github.noeppi_noeppi.tools.dye.loader.agent;
+
+import io.github.noeppi_noeppi.tools.dye.loader.DyeLoader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.List;
+
+/**
+ * {@link ClassFileTransformer} used by the {@link DyeAgent}. This may be called from many threads at once.
+ * Classes that don't reference any bound method are rejected on the raw bytes, without being parsed.
+ */
+public class DyeClassTransformer implements ClassFileTransformer {
+
+    private static final Logger LOGGER = LogManager.getLogger(DyeClassTransformer.class);
+
+    // Classes of the JDK and of everything the transformer itself uses. Transforming these could
+    // recurse into the transformer while it is loading its own classes.
+    private static final List<String> EXCLUDED_PACKAGES = List.of(
+            "java/", "javax/", "jdk/", "sun/", "com/sun/", "org/objectweb/asm/",
+            "org/apache/logging/log4j/", "io/github/noeppi_noeppi/tools/dye/"
+    );
+
+    private final DyeLoader loader;
+
+    public DyeClassTransformer(DyeLoader loader) {
+        this.loader = loader;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader classLoader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        // Redefinitions can't add the synthetic methods, hidden classes have no name.
+        if (classBeingRedefined != null || className == null) return null;
+        for (String pkg : EXCLUDED_PACKAGES) {
+            if (className.startsWith(pkg)) return null;
+        }
+        try {
+            byte[] result = this.loader.transform(classfileBuffer);
+            return result == classfileBuffer ? null : result;
+        } catch (Throwable t) {
+            // Exceptions thrown here are silently dropped by the JVM
+            LOGGER.error("Failed to transform class " + className, t);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package io.github.noeppi_noeppi.tools.dye.loader.internal;
+
+import io.github.noeppi_noeppi.tools.dye.api.Dye;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable table of all dynamically bound methods, indexed by owner, name and descriptor. Calls to methods of
+ * classes that don't own any bound methods are rejected by a single lookup. Tables are never modified, new
+ * bindings are added by publishing a new table with a higher version.
+ */
+public class BindTable {
+
+    public static final BindTable EMPTY = new BindTable(Map.of(), 0, 0);
+
+    private final Map<String, Map<String, Map<String, Binding>>> bindings;
+    private final long version;
+    private final int size;
+    private final ConstantPoolFilter filter;
+    private volatile byte[] fingerprint;
+
+    private BindTable(Map<String, Map<String, Map<String, Binding>>> bindings, int size, long version) {
+        this.bindings = bindings;
+        this.version = version;
+        this.size = size;
+        this.filter = new ConstantPoolFilter(bindings.keySet());
+    }
+
+    public static BindTable of(Map<Dye.MethodTarget, Dye.MethodTarget> bind) {
+        return of(bind, 1);
+    }
+
+    public static BindTable of(Map<Dye.MethodTarget, Dye.MethodTarget> bind, long version) {
+        Map<Dye.MethodTarget, Binding.Factory> factories = new HashMap<>();
+        bind.forEach((target, metaFactory) -> factories.put(target, Binding.Factory.of(metaFactory)));
+        return EMPTY.merge(factories, version);
+    }
+
+    /**
+     * Creates a new table, that contains all bindings from this table and the given bindings, with the next version.
+     * The bindings of owners without new bindings are shared with this table, but the owner index and the
+     * {@link ConstantPoolFilter} are rebuilt, so this is linear in the number of owners. Callers should collect
+     * bindings and publish them at once. If all bindings are already present, this table is returned.
+     *
+     * @throws RuntimeException if a binding conflicts with an existing binding.
+     */
+    public BindTable with(Map<Dye.MethodTarget, Binding.Factory> bind) {
+        return this.merge(bind, this.version + 1);
+    }
+
+    private BindTable merge(Map<Dye.MethodTarget, Binding.Factory> bind, long version) {
+        Map<String, Map<String, Map<String, Binding>>> added = new HashMap<>();
+        int count = 0;
+        for (Map.Entry<Dye.MethodTarget, Binding.Factory> entry : bind.entrySet()) {
+            Dye.MethodTarget target = entry.getKey();
+            Binding existing = this.get(target.type(), target.name(), target.descriptor());
+            if (existing != null) {
+                if (!existing.factory().equals(entry.getValue())) {
+                    throw new RuntimeException("Conflicting duplicate bind for " + target + ": " + existing.factory() + " and " + entry.getValue());
+                }
+            } else {
+                added.computeIfAbsent(target.type(), k -> new HashMap<>())
+                        .computeIfAbsent(target.name(), k -> new HashMap<>())
+                        .put(target.descriptor(), new Binding(target, entry.getValue()));
+                count += 1;
+            }
+        }
+        // Nothing new, no need to publish another version
+        if (count == 0 && this != EMPTY) return this;
+        Map<String, Map<String, Map<String, Binding>>> result = new HashMap<>(this.bindings);
+        for (Map.Entry<String, Map<String, Map<String, Binding>>> owner : added.entrySet()) {
+            Map<String, Map<String, Binding>> names = new HashMap<>(result.getOrDefault(owner.getKey(), Map.of()));
+            for (Map.Entry<String, Map<String, Binding>> name : owner.getValue().entrySet()) {
+                Map<String, Binding> descriptors = new HashMap<>(names.getOrDefault(name.getKey(), Map.of()));
+                descriptors.putAll(name.getValue());
+                names.put(name.getKey(), Map.copyOf(descriptors));
+            }
+            result.put(owner.getKey(), Map.copyOf(names));
+        }
+        // result is never modified after this, so it does not need to be copied again
+        return new BindTable(Collections.unmodifiableMap(result), this.size + count, version);
+    }
+
+    /**
+     * Gets the binding for the given method or {@code null} if the method is not dynamically bound.
+     */
+    public Binding get(String owner, String name, String descriptor) {
+        Map<String, Map<String, Binding>> names = this.bindings.get(owner);
+        if (names == null) return null;
+        Map<String, Binding> descriptors = names.get(name);
+        if (descriptors == null) return null;
+        return descriptors.get(descriptor);
+    }
+
+    /**
+     * Gets all classes, that own dynamically bound methods.
+     */
+    public Set<String> owners() {
+        return this.bindings.keySet();
+    }
+
+    /**
+     * Gets a {@link ConstantPoolFilter} that matches classes that could reference methods from this table.
+     */
+    public ConstantPoolFilter filter() {
+        return this.filter;
+    }
+
+    /**
+     * Gets a hash over all bindings in this table and the version of the transformer. Two tables with the same
+     * fingerprint produce the same output for the same class.
+     */
+    public byte[] fingerprint() {
+        if (this.fingerprint == null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(("dye-transformer " + DyeTransformer.VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+                this.bindings.values().stream().flatMap(m -> m.values().stream()).flatMap(m -> m.values().stream())
+                        .map(b -> b.target() + "\t" + b.factory() + "\n").sorted()
+                        .forEach(line -> digest.update(line.getBytes(StandardCharsets.UTF_8)));
+                this.fingerprint = digest.digest();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+        }
+        return this.fingerprint;
+    }
+
+    /**
+     * Gets the version of this table. Every table published by a loader has a higher version than the previous one.
+     */
+    public long version() {
+        return this.version;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+}
@@ -0,0 +1,235 @@
+package io.github.noeppi_noeppi.tools.dye.loader.internal;
+
+import io.github.noeppi_noeppi.tools.dye.api.Dye;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A single entry in a {@link BindTable}. Everything that is needed to generate INVOKEDYNAMIC instructions
+ * for the bound method, is computed once when the binding is created.
+ */
+public class Binding {
+
+    private final Dye.MethodTarget target;
+    private final Dye.MethodTarget metaFactory;
+    private final List<Object> args;
+    private final Handle bootstrap;
+    private final boolean withDynamic;
+    private final boolean withArgs;
+    private final boolean constant;
+    private final boolean validFactory;
+    private final String staticDescriptor;
+    private final String instanceDescriptor;
+    private DescriptorParser.Result staticType;
+    private DescriptorParser.Result instanceType;
+
+    public Binding(Dye.MethodTarget target, Dye.MethodTarget metaFactory) {
+        this(target, Factory.of(metaFactory));
+    }
+
+    public Binding(Dye.MethodTarget target, Factory factory) {
+        Dye.MethodTarget metaFactory = factory.metaFactory();
+        this.target = target;
+        this.metaFactory = metaFactory;
+        this.args = factory.args();
+        this.bootstrap = new Handle(Opcodes.H_INVOKESTATIC, metaFactory.type(), metaFactory.name(), metaFactory.descriptor(), false);
+        this.withDynamic = DyeTransformer.META_FACTORY_DESCRIPTOR_D.equals(metaFactory.descriptor()) || DyeTransformer.META_FACTORY_DESCRIPTOR_DA.equals(metaFactory.descriptor());
+        this.withArgs = DyeTransformer.META_FACTORY_DESCRIPTOR_A.equals(metaFactory.descriptor()) || DyeTransformer.META_FACTORY_DESCRIPTOR_DA.equals(metaFactory.descriptor());
+        this.constant = isConstantFactory(metaFactory.descriptor());
+        this.validFactory = this.withDynamic || this.withArgs || this.constant || DyeTransformer.META_FACTORY_DESCRIPTOR.equals(metaFactory.descriptor());
+        this.staticDescriptor = target.descriptor();
+        // Instance methods get the this reference as first argument
+        this.instanceDescriptor = target.descriptor().startsWith("(") ? "(L" + target.type() + ";" + target.descriptor().substring(1) : null;
+    }
+
+    public Dye.MethodTarget target() {
+        return this.target;
+    }
+
+    public Dye.MethodTarget metaFactory() {
+        return this.metaFactory;
+    }
+
+    /**
+     * The static arguments for the metafactory, as constants for ASM.
+     */
+    public List<Object> args() {
+        return this.args;
+    }
+
+    /**
+     * The metafactory together with its static arguments.
+     */
+    public Factory factory() {
+        return new Factory(this.metaFactory, this.args);
+    }
+
+    /**
+     * The handle to the metafactory used as bootstrap method.
+     */
+    public Handle bootstrap() {
+        if (!this.validFactory) {
+            throw new RuntimeException("Dye transformer: Invalid @Bind target: invalid metafactory descriptor: " + this.metaFactory.descriptor());
+        }
+        if (!this.args.isEmpty() && !this.withArgs) {
+            throw new RuntimeException("Dye transformer: Invalid @Bind target: metafactory does not take static arguments: " + this.metaFactory.descriptor());
+        }
+        return this.bootstrap;
+    }
+
+    /**
+     * Whether this binds a constant, see {@link io.github.noeppi_noeppi.tools.dye.api.BindConstant}. In that case,
+     * the metafactory is the bootstrap method for the dynamic constant.
+     */
+    public boolean constant() {
+        return this.constant;
+    }
+
+    /**
+     * Whether the given descriptor is valid for a bootstrap method of a {@link io.github.noeppi_noeppi.tools.dye.api.BindConstant}.
+     */
+    public static boolean isConstantFactory(String descriptor) {
+        return descriptor.startsWith(DyeTransformer.CONSTANT_FACTORY_PREFIX) && descriptor.length() > DyeTransformer.CONSTANT_FACTORY_PREFIX.length()
+                && (descriptor.charAt(DyeTransformer.CONSTANT_FACTORY_PREFIX.length()) == 'L' || descriptor.charAt(DyeTransformer.CONSTANT_FACTORY_PREFIX.length()) == '[');
+    }
+
+    /**
+     * Whether the metafactory accepts a {@link io.github.noeppi_noeppi.tools.dye.api.Dynamic} argument.
+     */
+    public boolean withDynamic() {
+        return this.withDynamic;
+    }
+
+    /**
+     * Gets the descriptor for an INVOKEDYNAMIC instruction, that replaces an access to the bound method with
+     * the given handle tag.
+     */
+    public String descriptor(int handleTag) {
+        if (handleTag == Opcodes.H_INVOKESTATIC) {
+            return this.staticDescriptor;
+        } else if (this.instanceDescriptor != null) {
+            return this.instanceDescriptor;
+        } else {
+            throw new RuntimeException("Dye transformer: Invalid method descriptor: " + this.target.descriptor());
+        }
+    }
+
+    /**
+     * Gets the parsed version of {@link #descriptor(int)}.
+     */
+    public DescriptorParser.Result type(int handleTag) {
+        if (handleTag == Opcodes.H_INVOKESTATIC) {
+            if (this.staticType == null) {
+                this.staticType = DescriptorParser.parse(this.staticDescriptor);
+            }
+            return this.staticType;
+        } else {
+            if (this.instanceType == null) {
+                DescriptorParser.Result type = this.type(Opcodes.H_INVOKESTATIC);
+                List<DescriptorParser.Entry> args = new ArrayList<>(type.args().size() + 1);
+                args.add(new DescriptorParser.Entry(DescriptorParser.Type.REFERENCE, this.target.type()));
+                args.addAll(type.args());
+                this.instanceType = new DescriptorParser.Result(Collections.unmodifiableList(args), type.ret());
+            }
+            return this.instanceType;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.target + " -> " + this.factory();
+    }
+
+    /**
+     * The metafactory of a bound method together with the static arguments from {@link io.github.noeppi_noeppi.tools.dye.api.Bind#args()}.
+     * The arguments are {@link String}, {@link Integer}, {@link Long}, {@link Type} or {@link Handle} constants.
+     */
+    public static record Factory(Dye.MethodTarget metaFactory, List<Object> args) {
+
+        public Factory {
+            args = List.copyOf(args);
+        }
+
+        public static Factory of(Dye.MethodTarget metaFactory) {
+            return new Factory(metaFactory, List.of());
+        }
+
+        /**
+         * Turns a static argument into its representation in the binding index.
+         */
+        public static String encode(Object arg) {
+            if (arg instanceof String str) {
+                return "string:" + str.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+            } else if (arg instanceof Integer value) {
+                return "int:" + value;
+            } else if (arg instanceof Long value) {
+                return "long:" + value;
+            } else if (arg instanceof Type type) {
+                return "class:" + type.getDescriptor();
+            } else if (arg instanceof Handle handle && handle.getTag() == Opcodes.H_INVOKESTATIC) {
+                return (handle.isInterface() ? "interfaceMethod:" : "method:") + handle.getOwner() + ";" + handle.getName() + handle.getDesc();
+            } else {
+                throw new IllegalArgumentException("Invalid static argument: " + arg);
+            }
+        }
+
+        /**
+         * Parses a static argument from its representation in the binding index.
+         */
+        public static Object decode(String arg) {
+            int idx = arg.indexOf(':');
+            String value = idx < 0 ? "" : arg.substring(idx + 1);
+            try {
+                return switch (idx < 0 ? arg : arg.substring(0, idx)) {
+                    case "string" -> unescape(value);
+                    case "int" -> Integer.parseInt(value);
+                    case "long" -> Long.parseLong(value);
+                    case "class" -> Type.getType(value);
+                    case "method" -> handle(Dye.parse(value), false);
+                    case "interfaceMethod" -> handle(Dye.parse(value), true);
+                    default -> throw new IllegalArgumentException("Invalid static argument: " + arg);
+                };
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid static argument: " + arg);
+            }
+        }
+
+        /**
+         * Creates the handle for a static method passed as static argument.
+         */
+        public static Handle handle(Dye.MethodTarget method, boolean isInterface) {
+            return new Handle(Opcodes.H_INVOKESTATIC, method.type(), method.name(), method.descriptor(), isInterface);
+        }
+
+        private static String unescape(String str) {
+            StringBuilder sb = new StringBuilder(str.length());
+            for (int i = 0; i < str.length(); i++) {
+                char chr = str.charAt(i);
+                if (chr == '\\' && i + 1 < str.length()) {
+                    i += 1;
+                    sb.append(switch (str.charAt(i)) {
+                        case 't' -> '\t';
+                        case 'n' -> '\n';
+                        case 'r' -> '\r';
+                        default -> str.charAt(i);
+                    });
+                } else {
+                    sb.append(chr);
+                }
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            if (this.args.isEmpty()) return this.metaFactory.toString();
+            return this.metaFactory + this.args.stream().map(Factory::encode).collect(Collectors.joining(" ", " [", "]"));
+        }
+    }
+}
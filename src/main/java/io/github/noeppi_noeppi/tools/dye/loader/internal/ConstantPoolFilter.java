@@ -0,0 +1,158 @@
+package io.github.noeppi_noeppi.tools.dye.loader.internal;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Cheap check on raw class bytes whether a class could reference a dynamically bound method. This only scans the
+ * constant pool and never parses the rest of the class.
+ *
+ * A class matches, if it is itself an owner of bound methods (so the {@code @Bind} methods must be stripped) or if
+ * it contains a {@code Methodref} or {@code InterfaceMethodref} whose owner is an owner of bound methods. Method handle
+ * constants (as used for method references) always point to one of these, so they are covered as well.
+ */
+public class ConstantPoolFilter {
+
+    private static final int TAG_UTF8 = 1;
+    private static final int TAG_INTEGER = 3;
+    private static final int TAG_FLOAT = 4;
+    private static final int TAG_LONG = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_CLASS = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_FIELD_REF = 9;
+    private static final int TAG_METHOD_REF = 10;
+    private static final int TAG_INTERFACE_METHOD_REF = 11;
+    private static final int TAG_NAME_AND_TYPE = 12;
+    private static final int TAG_METHOD_HANDLE = 15;
+    private static final int TAG_METHOD_TYPE = 16;
+    private static final int TAG_DYNAMIC = 17;
+    private static final int TAG_INVOKE_DYNAMIC = 18;
+    private static final int TAG_MODULE = 19;
+    private static final int TAG_PACKAGE = 20;
+
+    // Open addressing hash table of the owner names encoded as modified UTF-8
+    // so they can be compared to the constant pool without decoding it.
+    private final byte[][] owners;
+    private final int mask;
+    private final int size;
+
+    public ConstantPoolFilter(Collection<String> owners) {
+        int capacity = Integer.highestOneBit(Math.max(4, owners.size() * 2 - 1)) << 1;
+        this.owners = new byte[capacity][];
+        this.mask = capacity - 1;
+        int count = 0;
+        for (String owner : owners) {
+            byte[] encoded = encode(owner);
+            int idx = hash(encoded, 0, encoded.length) & this.mask;
+            while (this.owners[idx] != null && !Arrays.equals(this.owners[idx], encoded)) {
+                idx = (idx + 1) & this.mask;
+            }
+            if (this.owners[idx] == null) {
+                this.owners[idx] = encoded;
+                count += 1;
+            }
+        }
+        this.size = count;
+    }
+
+    /**
+     * Gets whether the class given by its raw bytes might need to be transformed. This errs on the side of
+     * caution, so invalid class files will always match.
+     */
+    public boolean matches(byte[] cls) {
+        if (this.size == 0) return false;
+        try {
+            if (cls.length < 10 || readInt(cls, 0) != 0xCAFEBABE) return true;
+            int count = readShort(cls, 8);
+            int[] offsets = new int[count];
+            int pos = 10;
+            for (int i = 1; i < count; i++) {
+                offsets[i] = pos;
+                int tag = cls[pos] & 0xFF;
+                switch (tag) {
+                    case TAG_UTF8 -> pos += 3 + readShort(cls, pos + 1);
+                    case TAG_CLASS, TAG_STRING, TAG_METHOD_TYPE, TAG_MODULE, TAG_PACKAGE -> pos += 3;
+                    case TAG_METHOD_HANDLE -> pos += 4;
+                    case TAG_INTEGER, TAG_FLOAT, TAG_FIELD_REF, TAG_METHOD_REF, TAG_INTERFACE_METHOD_REF,
+                            TAG_NAME_AND_TYPE, TAG_DYNAMIC, TAG_INVOKE_DYNAMIC -> pos += 5;
+                    case TAG_LONG, TAG_DOUBLE -> {
+                        pos += 9;
+                        i += 1;
+                    }
+                    default -> {
+                        return true;
+                    }
+                }
+            }
+
+            // Classes that declare bound methods need to have them stripped
+            int thisClass = readShort(cls, pos + 2);
+            if (isOwner(cls, offsets, thisClass)) return true;
+
+            for (int i = 1; i < count; i++) {
+                int offset = offsets[i];
+                if (offset == 0) continue;
+                int tag = cls[offset] & 0xFF;
+                if ((tag == TAG_METHOD_REF || tag == TAG_INTERFACE_METHOD_REF) && isOwner(cls, offsets, readShort(cls, offset + 1))) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IndexOutOfBoundsException e) {
+            return true;
+        }
+    }
+
+    private boolean isOwner(byte[] cls, int[] offsets, int classIdx) {
+        int classOffset = offsets[classIdx];
+        if ((cls[classOffset] & 0xFF) != TAG_CLASS) return true;
+        int utfOffset = offsets[readShort(cls, classOffset + 1)];
+        int len = readShort(cls, utfOffset + 1);
+        int from = utfOffset + 3;
+        int idx = hash(cls, from, from + len) & this.mask;
+        while (this.owners[idx] != null) {
+            if (Arrays.equals(this.owners[idx], 0, this.owners[idx].length, cls, from, from + len)) {
+                return true;
+            }
+            idx = (idx + 1) & this.mask;
+        }
+        return false;
+    }
+
+    private static int hash(byte[] data, int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + data[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (readShort(data, offset) << 16) | readShort(data, offset + 2);
+    }
+
+    // Encodes a string the same way it is stored in the constant pool (modified UTF-8)
+    private static byte[] encode(String str) {
+        byte[] result = new byte[str.length() * 3];
+        int len = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char chr = str.charAt(i);
+            if (chr >= 0x01 && chr <= 0x7F) {
+                result[len++] = (byte) chr;
+            } else if (chr <= 0x7FF) {
+                result[len++] = (byte) (0xC0 | ((chr >> 6) & 0x1F));
+                result[len++] = (byte) (0x80 | (chr & 0x3F));
+            } else {
+                result[len++] = (byte) (0xE0 | ((chr >> 12) & 0x0F));
+                result[len++] = (byte) (0x80 | ((chr >> 6) & 0x3F));
+                result[len++] = (byte) (0x80 | (chr & 0x3F));
+            }
+        }
+        return Arrays.copyOf(result, len);
+    }
+}
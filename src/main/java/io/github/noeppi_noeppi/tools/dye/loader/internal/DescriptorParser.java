@@ -2,64 +2,47 @@ package io.github.noeppi_noeppi.tools.dye.loader.internal;
 
 import org.objectweb.asm.Opcodes;
 
-import java.io.IOException;
-import java.io.Reader;
-import java.io.StringReader;
-import java.util.*;
-import java.util.function.Function;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 
 public class DescriptorParser {
-    
-    private static final Map<Character, Type> TYPES = Arrays.stream(Type.values()).collect(Collectors.toUnmodifiableMap(t -> t.sym, Function.identity()));
 
     public static Result parse(String descriptor) {
-        Reader r = new StringReader(descriptor);
-        try {
-            if (r.read() != '(') throw new IOException("Expected ( at position 0");
-            List<Entry> args = new ArrayList<>();
-            while (true) {
-                int read = r.read();
-                if (read == -1)  throw new IOException("Unexpected end of input");
-                if (read == ')') break;
-                if (!TYPES.containsKey((char) read)) throw new IOException("Invalid descriptor arg type: " + (char) read);
-                Type type = TYPES.get((char) read);
-                if (type == Type.VOID) throw new IOException("Void is not allowed as argument");
-                String ext = "";
-                if (type.hasExt) {
-                    ext = readUntil(r, ';');
-                }
-                args.add(new Entry(type, ext));
-            }
-            int read = r.read();
-            if (read == -1) throw new IOException("Unexpected end of input");
-            if (!TYPES.containsKey((char) read)) throw new IOException("Invalid descriptor ret type: " + (char) read);
-            Type type = TYPES.get((char) read);
-            String ext = "";
-            if (type.hasExt) {
-                ext = readUntil(r, ';');
-            }
-            if (r.read() != -1) throw new IOException("Input not fully consumed");
-            return new Result(Collections.unmodifiableList(args), new Entry(type, ext));
-        } catch (IOException e) {
-            throw new RuntimeException("Dye: Parsing method descriptor: " + descriptor, e);
+        if (descriptor.isEmpty() || descriptor.charAt(0) != '(') throw error(descriptor, "Expected ( at position 0");
+        List<Entry> args = new ArrayList<>();
+        int pos = 1;
+        while (true) {
+            if (pos >= descriptor.length()) throw error(descriptor, "Unexpected end of input");
+            char chr = descriptor.charAt(pos);
+            if (chr == ')') break;
+            Type type = Type.of(chr);
+            if (type == null) throw error(descriptor, "Invalid descriptor arg type: " + chr);
+            if (type == Type.VOID) throw error(descriptor, "Void is not allowed as argument");
+            int end = type.hasExt ? extEnd(descriptor, pos + 1) : pos + 1;
+            args.add(new Entry(type, type.hasExt ? descriptor.substring(pos + 1, end - 1) : ""));
+            pos = end;
         }
+        pos += 1;
+        if (pos >= descriptor.length()) throw error(descriptor, "Unexpected end of input");
+        char chr = descriptor.charAt(pos);
+        Type type = Type.of(chr);
+        if (type == null) throw error(descriptor, "Invalid descriptor ret type: " + chr);
+        int end = type.hasExt ? extEnd(descriptor, pos + 1) : pos + 1;
+        Entry ret = new Entry(type, type.hasExt ? descriptor.substring(pos + 1, end - 1) : "");
+        if (end != descriptor.length()) throw error(descriptor, "Input not fully consumed");
+        return new Result(Collections.unmodifiableList(args), ret);
     }
 
-    @SuppressWarnings("SameParameterValue")
-    private static String readUntil(Reader reader, char chr) throws IOException {
-        String str = readTo(reader, chr);
-        return str.isEmpty() ? "" : str.substring(0, str.length() - 1);
+    // Gets the position after the semicolon that ends the type extension starting at the given position.
+    private static int extEnd(String descriptor, int from) {
+        int idx = descriptor.indexOf(';', from);
+        return idx < 0 ? descriptor.length() + 1 : idx + 1;
     }
 
-    private static String readTo(Reader reader, char chr) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        while (true) {
-            int read = reader.read();
-            if (read == -1) return sb.toString();
-            sb.append((char) read);
-            if ((char) read == chr) return sb.toString();
-        }
+    private static RuntimeException error(String descriptor, String msg) {
+        return new RuntimeException("Dye: Parsing method descriptor: " + descriptor, new IllegalArgumentException(msg));
     }
 
     public static record Result(List<Entry> args, Entry ret) {
@@ -69,7 +52,7 @@ public class DescriptorParser {
             return "(" + args.stream().map(Entry::toString).collect(Collectors.joining("")) + ")" + ret;
         }
     }
-    
+
     public static record Entry(Type type, String ext) {
 
         @Override
@@ -77,7 +60,7 @@ public class DescriptorParser {
             return type.hasExt ? "" + type.sym  + ext + ";" : "" + type.sym;
         }
     }
-    
+
     public enum Type {
         BOOLEAN('Z', 1, false, Opcodes.ILOAD, Opcodes.IRETURN),
         BYTE('B', 1, false, Opcodes.ILOAD, Opcodes.IRETURN),
@@ -89,13 +72,13 @@ public class DescriptorParser {
         DOUBLE('D', 2, false, Opcodes.DLOAD, Opcodes.DRETURN),
         REFERENCE('L', 1, true, Opcodes.ALOAD, Opcodes.ARETURN),
         VOID('V', 1, false, Opcodes.NOP, Opcodes.RETURN);
-        
+
         public final char sym;
         public final int size;
         public final boolean hasExt;
         public final int opcodeLoad;
         public final int opcodeReturn;
-        
+
         Type(char sym, int size, boolean hasExt, int opcodeLoad, int opcodeReturn) {
             this.sym = sym;
             this.size = size;
@@ -103,5 +86,21 @@ public class DescriptorParser {
             this.opcodeLoad = opcodeLoad;
             this.opcodeReturn = opcodeReturn;
         }
+
+        public static Type of(char sym) {
+            return switch (sym) {
+                case 'Z' -> BOOLEAN;
+                case 'B' -> BYTE;
+                case 'C' -> CHAR;
+                case 'S' -> SHORT;
+                case 'I' -> INTEGER;
+                case 'J' -> LONG;
+                case 'F' -> FLOAT;
+                case 'D' -> DOUBLE;
+                case 'L' -> REFERENCE;
+                case 'V' -> VOID;
+                default -> null;
+            };
+        }
     }
 }
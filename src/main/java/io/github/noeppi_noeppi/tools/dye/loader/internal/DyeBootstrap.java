@@ -0,0 +1,137 @@
+package io.github.noeppi_noeppi.tools.dye.loader.internal;
+
+import io.github.noeppi_noeppi.tools.dye.api.CallSiteRegistry;
+import io.github.noeppi_noeppi.tools.dye.api.Dye;
+import io.github.noeppi_noeppi.tools.dye.loader.jfr.BootstrapEvent;
+
+import java.lang.invoke.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bootstrap method used instead of the metafactory, when additional features are enabled at transform time. It
+ * receives the metafactory, the bound method, the enabled features and the id of the call site in the
+ * {@link SiteProfiler} (or {@code -1}) as static arguments, followed by the arguments for the metafactory. Classes transformed without features never reference this class.
+ */
+public class DyeBootstrap {
+
+    public static final String TYPE = DyeBootstrap.class.getName().replace('.', '/');
+    public static final String METHOD = "bootstrap";
+    public static final String DESCRIPTOR = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/String;II[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;";
+
+    /**
+     * Emit a {@link BootstrapEvent} for every metafactory invocation.
+     */
+    public static final int EVENTS = 1;
+
+    /**
+     * Count the invocations of the call site and sample their latency in the {@link SiteProfiler}.
+     */
+    public static final int PROFILE = 2;
+
+    /**
+     * Record the call site in the {@link CallSiteRegistry}.
+     */
+    public static final int REGISTRY = 4;
+
+    /**
+     * Share the target of constant call sites between all call sites for the same bound method and type in a class
+     * loader, so the metafactory only runs once for them. Call sites whose metafactory takes a
+     * {@link io.github.noeppi_noeppi.tools.dye.api.Dynamic} are never shared, neither are mutable call sites.
+     */
+    public static final int SHARE = 8;
+
+    /**
+     * Link call sites ahead of time on background threads, see {@link Prelinker}.
+     */
+    public static final int PRELINK = 16;
+
+    /**
+     * Features, that need the location of the call site in the {@link SiteProfiler}.
+     */
+    public static final int SITE_IDS = PROFILE | REGISTRY | PRELINK;
+
+    // The registry holds call sites weakly, but the JVM does not keep linked call sites reachable. Constant call
+    // sites are linked to their target and profiled sites replace the site from the metafactory. So registered
+    // sites are kept alive as long as the calling class.
+    private static final ClassValue<List<CallSite>> REGISTERED = new ClassValue<>() {
+
+        @Override
+        protected List<CallSite> computeValue(Class<?> type) {
+            return new ArrayList<>();
+        }
+    };
+
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, MethodHandle metaFactory, String target, int features, int siteId, Object... args) throws Throwable {
+        BootstrapEvent event = new BootstrapEvent();
+        event.begin();
+        // The transformer clears the flag for sites with a Dynamic, as it is different for every site
+        boolean share = (features & SHARE) != 0;
+        ClassLoader loader = lookup.lookupClass().getClassLoader();
+        MethodHandle shared = share ? SharedTargets.get(loader, target, type) : null;
+        CallSite site = null;
+        boolean prelinked = false;
+        if (shared != null) {
+            site = new ConstantCallSite(shared);
+        } else {
+            if ((features & PRELINK) != 0) {
+                site = Prelinker.take(siteId, lookup);
+                prelinked = site != null;
+                // The prelinker shares targets as well, but another site may have shared one in the meantime
+                if (share && site instanceof ConstantCallSite) {
+                    MethodHandle handle = SharedTargets.share(loader, target, type, site.getTarget());
+                    if (handle != site.getTarget()) site = new ConstantCallSite(handle);
+                }
+            }
+        }
+        if (site == null) {
+            Object[] factoryArgs = new Object[3 + args.length];
+            factoryArgs[0] = lookup;
+            factoryArgs[1] = name;
+            factoryArgs[2] = type;
+            System.arraycopy(args, 0, factoryArgs, 3, args.length);
+            site = (CallSite) metaFactory.invokeWithArguments(factoryArgs);
+            if (share && site instanceof ConstantCallSite) {
+                MethodHandle handle = SharedTargets.share(loader, target, type, site.getTarget());
+                if (handle != site.getTarget()) site = new ConstantCallSite(handle);
+            }
+        }
+        if ((features & PRELINK) != 0 && !prelinked) {
+            Prelinker.linked(siteId, lookup);
+        }
+        event.end();
+        if ((features & EVENTS) != 0 && event.shouldCommit()) {
+            event.caller = lookup.lookupClass();
+            event.target = target;
+            event.metaFactory = metaFactoryName(lookup, metaFactory);
+            event.shared = shared != null;
+            event.prelinked = prelinked;
+            event.commit();
+        }
+        SiteProfiler.Site profile = (features & SITE_IDS) == 0 ? null : SiteProfiler.get(siteId);
+        if (profile != null && (features & REGISTRY) != 0) {
+            CallSiteRegistry.register(Dye.parse(profile.target()), profile.location(), site);
+            List<CallSite> registered = REGISTERED.get(lookup.lookupClass());
+            synchronized (registered) {
+                registered.add(site);
+            }
+        }
+        if ((features & PROFILE) != 0) {
+            if (profile != null) {
+                // Mutable call sites may be relinked later, so go through their dynamic invoker
+                MethodHandle handle = site instanceof ConstantCallSite ? site.getTarget() : site.dynamicInvoker();
+                site = new ConstantCallSite(profile.wrap(handle));
+            }
+        }
+        return site;
+    }
+
+    private static String metaFactoryName(MethodHandles.Lookup lookup, MethodHandle metaFactory) {
+        try {
+            MethodHandleInfo info = lookup.revealDirect(metaFactory);
+            return info.getDeclaringClass().getName().replace('.', '/') + ";" + info.getName() + info.getMethodType().toMethodDescriptorString();
+        } catch (IllegalArgumentException | SecurityException e) {
+            return metaFactory.toString();
+        }
+    }
+}
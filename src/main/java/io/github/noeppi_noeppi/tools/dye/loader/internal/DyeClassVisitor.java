@@ -0,0 +1,194 @@
+package io.github.noeppi_noeppi.tools.dye.loader.internal;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Single pass version of {@link DyeTransformer#transform(org.objectweb.asm.tree.ClassNode, BindTable)}. Calls to
+ * bound methods are rewritten while the class streams from a {@link ClassReader} to the next visitor, so no tree
+ * is built for the class. Only the annotations of a method are buffered until it is known, whether it is a
+ * {@code @Bind} method, that needs to be removed. Both transformers produce the same output.
+ */
+public class DyeClassVisitor extends ClassVisitor {
+
+    private static final Logger LOGGER = LogManager.getLogger(DyeClassVisitor.class);
+
+    private final BindTable bind;
+    private final int features;
+    private final DyeTransformer.Bridges bridges = new DyeTransformer.Bridges();
+    private String name;
+    private int access;
+    private String sourceFile;
+    private DyeTransformer.ClassContext context;
+    private int sites = 0;
+    private boolean changed = false;
+
+    public DyeClassVisitor(ClassVisitor cv, BindTable bind) {
+        this(cv, bind, 0);
+    }
+
+    /**
+     * @param features Features of {@link DyeBootstrap} to use, see {@link DyeTransformer#transform(org.objectweb.asm.tree.ClassNode, BindTable, int)}.
+     */
+    public DyeClassVisitor(ClassVisitor cv, BindTable bind, int features) {
+        super(Opcodes.ASM9, cv);
+        this.bind = bind;
+        this.features = features;
+    }
+
+    /**
+     * Whether anything in the class was changed. Only valid after the class has been visited.
+     */
+    public boolean changed() {
+        return this.changed;
+    }
+
+    /**
+     * Gets the result of the transformation. Only valid after the class has been visited.
+     */
+    public DyeTransformer.Result result() {
+        return new DyeTransformer.Result(this.changed, this.sites, this.bridges.size());
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.name = name;
+        this.access = access;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+        this.sourceFile = source;
+        super.visitSource(source, debug);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        return new BindMethodVisitor(access, name, descriptor, signature, exceptions);
+    }
+
+    @Override
+    public void visitEnd() {
+        // Add synthetic methods used for method references
+        for (MethodNode method : this.bridges.synthetics()) {
+            LOGGER.debug("Adding synthetic bind method: {};{}{}", this.name, method.name, method.desc);
+            method.accept(this.cv);
+            this.changed = true;
+        }
+        super.visitEnd();
+    }
+
+    // The source file is visited before any method, so this is complete once the first method is visited.
+    private DyeTransformer.ClassContext context() {
+        if (this.context == null) {
+            this.context = DyeTransformer.ClassContext.of(this.name, this.access, this.sourceFile, this.features);
+        }
+        return this.context;
+    }
+
+    private class BindMethodVisitor extends MethodVisitor {
+
+        private final DyeTransformer.MethodContext context;
+        private final String signature;
+        private final String[] exceptions;
+        // Collects everything before the code of the method, until we know whether to keep it.
+        private final MethodNode header;
+        private boolean strip = false;
+        private boolean started = false;
+        private int lineNumber = -1;
+
+        private BindMethodVisitor(int access, String name, String descriptor, String signature, String[] exceptions) {
+            super(Opcodes.ASM9);
+            this.context = new DyeTransformer.MethodContext(name, access, descriptor);
+            this.signature = signature;
+            this.exceptions = exceptions;
+            this.header = new MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions);
+            this.mv = this.header;
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            if (DyeTransformer.isBindAnnotation(descriptor)) this.strip = true;
+            return super.visitAnnotation(descriptor, visible);
+        }
+
+        @Override
+        public void visitCode() {
+            this.start();
+            super.visitCode();
+        }
+
+        @Override
+        public void visitEnd() {
+            this.start();
+            super.visitEnd();
+        }
+
+        private void start() {
+            if (this.started) return;
+            this.started = true;
+            if (this.strip) {
+                LOGGER.debug("Stripping @Bind method {};{}{}", DyeClassVisitor.this.name, this.context.name(), this.context.desc());
+                DyeClassVisitor.this.changed = true;
+                this.mv = null;
+            } else {
+                MethodVisitor target = DyeClassVisitor.this.cv == null ? null : DyeClassVisitor.this.cv.visitMethod(
+                        this.context.access(), this.context.name(), this.context.desc(), this.signature, this.exceptions
+                );
+                if (target != null) {
+                    // Replay the header without ending the method
+                    this.header.accept(new MethodVisitor(Opcodes.ASM9, target) {
+                        @Override
+                        public void visitEnd() {
+                            //
+                        }
+                    });
+                }
+                this.mv = target;
+            }
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            this.lineNumber = line;
+            super.visitLineNumber(line, start);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            Binding binding = this.mv == null ? null : DyeClassVisitor.this.bind.get(owner, name, descriptor);
+            if (binding != null) {
+                DyeTransformer.transformInstruction(DyeTransformer.getHandleTag(opcode, name), binding, DyeClassVisitor.this.context(), this.context, this.lineNumber).accept(this.mv);
+                LOGGER.debug("Patching call to @Bind method {} in {};{}{}#{}", binding.target(), DyeClassVisitor.this.name, this.context.name(), this.context.desc(), this.lineNumber);
+                DyeClassVisitor.this.sites += 1;
+                DyeClassVisitor.this.changed = true;
+            } else {
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            }
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+            if (this.mv != null && DyeTransformer.isLambdaFactory(bootstrapMethodHandle)
+                    && bootstrapMethodArguments.length >= 2 && bootstrapMethodArguments[1] instanceof Handle lambdaTarget) {
+                Binding binding = DyeClassVisitor.this.bind.get(lambdaTarget.getOwner(), lambdaTarget.getName(), lambdaTarget.getDesc());
+                if (binding != null) {
+                    int created = DyeClassVisitor.this.bridges.size();
+                    MethodNode syn = DyeClassVisitor.this.bridges.get(lambdaTarget.getTag(), binding, DyeClassVisitor.this.context(), this.context, this.lineNumber);
+                    Object[] args = bootstrapMethodArguments.clone();
+                    args[1] = new Handle(Opcodes.H_INVOKESTATIC, DyeClassVisitor.this.name, syn.name, syn.desc, false);
+                    LOGGER.debug("Patching @Bind method reference for {} in {};{}{}#{}", binding.target(), DyeClassVisitor.this.name, this.context.name(), this.context.desc(), this.lineNumber);
+                    // Shared bridges don't add another call site
+                    if (DyeClassVisitor.this.bridges.size() != created) DyeClassVisitor.this.sites += 1;
+                    DyeClassVisitor.this.changed = true;
+                    super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, args);
+                    return;
+                }
+            }
+            super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+        }
+    }
+}
@@ -1,34 +1,63 @@
 package io.github.noeppi_noeppi.tools.dye.loader.internal;
 
 import io.github.noeppi_noeppi.tools.dye.api.Bind;
-import io.github.noeppi_noeppi.tools.dye.api.Dye;
+import io.github.noeppi_noeppi.tools.dye.api.BindConstant;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.objectweb.asm.ConstantDynamic;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
 
 import java.lang.reflect.Modifier;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.*;
 
 public class DyeTransformer {
 
     private static final Logger LOGGER = LogManager.getLogger(DyeTransformer.class);
     
+    // Must be incremented whenever the generated bytecode changes, as it is part of the cache key
+    public static final int VERSION = 7;
+    
     public static final String BIND_TYPE = "L" + Bind.class.getName().replace('.', '/') + ";";
+    public static final String BIND_CONSTANT_TYPE = "L" + BindConstant.class.getName().replace('.', '/') + ";";
     public static final String META_FACTORY_DESCRIPTOR = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;";
     public static final String META_FACTORY_DESCRIPTOR_D = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Lio/github/noeppi_noeppi/tools/dye/api/Dynamic;)Ljava/lang/invoke/CallSite;";
+    public static final String META_FACTORY_DESCRIPTOR_A = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;";
+    public static final String META_FACTORY_DESCRIPTOR_DA = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Lio/github/noeppi_noeppi/tools/dye/api/Dynamic;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;";
+    public static final String CONSTANT_FACTORY_PREFIX = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)";
     public static final String LAMBDA_FACTORY_TYPE = "java/lang/invoke/LambdaMetafactory";
     public static final String LAMBDA_FACTORY_METHOD = "metafactory";
+    
+    private static final Handle DYNAMIC_FACTORY = new Handle(
+            Opcodes.H_INVOKESTATIC, DynamicFactory.TYPE, DynamicFactory.METHOD, DynamicFactory.DESCRIPTOR, false
+    );
+
+    private static final Handle PRIMITIVE_CLASS = new Handle(
+            Opcodes.H_INVOKESTATIC, "java/lang/invoke/ConstantBootstraps", "primitiveClass",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Class;", false
+    );
+
+    private static final Handle DYE_BOOTSTRAP = new Handle(
+            Opcodes.H_INVOKESTATIC, DyeBootstrap.TYPE, DyeBootstrap.METHOD, DyeBootstrap.DESCRIPTOR, false
+    );
+
+    public static boolean transform(ClassNode cls, BindTable bind) {
+        return transform(cls, bind, 0).changed();
+    }
 
-    public static boolean transform(ClassNode cls, Map<Dye.MethodTarget, Dye.MethodTarget> bind) {
+    /**
+     * Transforms a class node.
+     * 
+     * @param features Features of {@link DyeBootstrap} to use for the generated call sites. If this is {@code 0},
+     *                 the metafactories are used as bootstrap methods directly.
+     */
+    public static Result transform(ClassNode cls, BindTable bind, int features) {
         boolean changed = false;
-        AtomicInteger counter = new AtomicInteger(0);
+        int sites = 0;
+        Bridges bridges = new Bridges();
+        ClassContext context = ClassContext.of(cls.name, cls.access, cls.sourceFile, features);
         
         // Remove all @Bind methods
         Iterator<MethodNode> itr = cls.methods.iterator();
@@ -43,15 +72,15 @@ public class DyeTransformer {
         
         // Scan for invoke instructions to bind methods
         // and generate a matching INVOKEDYNAMIC instruction
-        List<MethodNode> synthetics = new ArrayList<>();
         for (int i = 0; i < cls.methods.size(); i++) {
-            MethodResult result = transformMethod(cls, cls.methods.get(i), bind, counter);
+            MethodResult result = transformMethod(context, cls.methods.get(i), bind, bridges);
             cls.methods.set(i, result.method());
-            synthetics.addAll(result.synthetics);
+            sites += result.sites();
             if (result.changed()) changed = true;
         }
         
         // Add synthetic methods used for method references
+        List<MethodNode> synthetics = bridges.synthetics();
         if (!synthetics.isEmpty()) {
             changed = true;
             for (MethodNode method : synthetics) {
@@ -60,117 +89,162 @@ public class DyeTransformer {
             }
         }
         
-        return changed;
+        return new Result(changed, sites, synthetics.size());
     }
     
     private static boolean isDynamicMethod(MethodNode method) {
-        return (method.invisibleAnnotations != null && method.invisibleAnnotations.stream().anyMatch(a -> BIND_TYPE.equals(a.desc)))
-                || (method.visibleAnnotations != null && method.visibleAnnotations.stream().anyMatch(a -> BIND_TYPE.equals(a.desc)));
+        return (method.invisibleAnnotations != null && method.invisibleAnnotations.stream().anyMatch(a -> isBindAnnotation(a.desc)))
+                || (method.visibleAnnotations != null && method.visibleAnnotations.stream().anyMatch(a -> isBindAnnotation(a.desc)));
+    }
+
+    public static boolean isBindAnnotation(String desc) {
+        return BIND_TYPE.equals(desc) || BIND_CONSTANT_TYPE.equals(desc);
     }
     
-    private static MethodResult transformMethod(ClassNode cls, MethodNode method, Map<Dye.MethodTarget, Dye.MethodTarget> bind, AtomicInteger counter) {
+    private static MethodResult transformMethod(ClassContext cls, MethodNode method, BindTable bind, Bridges bridges) {
         boolean changed = false;
+        int sites = 0;
+        MethodContext context = new MethodContext(method.name, method.access, method.desc);
         int lineNumber = -1;
-        List<MethodNode> synthetics = new ArrayList<>();
         for (AbstractInsnNode insn : method.instructions) {
             if (insn instanceof LineNumberNode ln) {
                 lineNumber = ln.line;
             } else if (insn.getOpcode() == Opcodes.INVOKEVIRTUAL || insn.getOpcode() == Opcodes.INVOKEINTERFACE
                     || insn.getOpcode() == Opcodes.INVOKESPECIAL || insn.getOpcode() == Opcodes.INVOKESTATIC) {
                 if (insn instanceof MethodInsnNode call) {
-                    Dye.MethodTarget target = new Dye.MethodTarget(call.owner, call.name, call.desc);
-                    if (bind.containsKey(target)) {
-                        method.instructions.set(insn, transformInstruction(getHandleTag(call.getOpcode(), call.name), target, bind.get(target), cls, method, lineNumber));
-                        LOGGER.debug("Patching call to @Bind method {} in {};{}{}#{}", target, cls.name, method.name, method.desc, lineNumber);
+                    Binding binding = bind.get(call.owner, call.name, call.desc);
+                    if (binding != null) {
+                        method.instructions.set(insn, transformInstruction(getHandleTag(call.getOpcode(), call.name), binding, cls, context, lineNumber));
+                        LOGGER.debug("Patching call to @Bind method {} in {};{}{}#{}", binding.target(), cls.name(), method.name, method.desc, lineNumber);
+                        sites += 1;
                         changed = true;
                     }
                 }
             } else if (insn.getOpcode() == Opcodes.INVOKEDYNAMIC && insn instanceof InvokeDynamicInsnNode call) {
-                if (LAMBDA_FACTORY_TYPE.equals(call.bsm.getOwner()) && LAMBDA_FACTORY_METHOD.equals(call.bsm.getName())) {
+                if (isLambdaFactory(call.bsm)) {
                     // If a dynamic method is used as a method reference, it will be found in an INVOKEDYNAMIC
                     // instruction that creates a lambda from it. We generate a fake method and inject that into
                     // the lambda, so we can generate a custom INVOKEDYNAMIC with all args we want.
                     if (call.bsmArgs.length >= 2 && call.bsmArgs[1] instanceof Handle lambdaTarget) {
-                        Dye.MethodTarget target = new Dye.MethodTarget(lambdaTarget.getOwner(), lambdaTarget.getName(), lambdaTarget.getDesc());
-                        if (bind.containsKey(target)) {
-                            MethodNode syn = new MethodNode(
-                                    Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
-                                    "dynamic$" + namePart(method.name) + "$" + namePart(lambdaTarget.getName()) + "$" + counter.getAndIncrement(),
-                                    getTargetDescriptor(lambdaTarget.getTag(), target), null, null
-                            );
-                            InvokeDynamicInsnNode indy = transformInstruction(lambdaTarget.getTag(), target, bind.get(target), cls, syn, lineNumber);
-                            DescriptorParser.Result desc = DescriptorParser.parse(syn.desc);
-                            
-                            int currentIdx = 0; // Index to load parameters
-                            for (DescriptorParser.Entry arg : desc.args()) {
-                                syn.instructions.add(new VarInsnNode(arg.type().opcodeLoad, currentIdx));
-                                currentIdx += arg.type().size;
-                            }
-                            syn.instructions.add(indy);
-                            syn.instructions.add(new InsnNode(desc.ret().type().opcodeReturn));
-                            
-                            // Replace method handle in lambda factory INVOKEDYNAMIC and add synthetic
-                            // method to list
-                            call.bsmArgs[1] = new Handle(Opcodes.H_INVOKESTATIC, cls.name, syn.name, syn.desc, false);
-                            synthetics.add(syn);
-                            LOGGER.debug("Patching @Bind method reference for {} in {};{}{}#{}", target, cls.name, method.name, method.desc, lineNumber);
+                        Binding binding = bind.get(lambdaTarget.getOwner(), lambdaTarget.getName(), lambdaTarget.getDesc());
+                        if (binding != null) {
+                            int created = bridges.size();
+                            MethodNode syn = bridges.get(lambdaTarget.getTag(), binding, cls, context, lineNumber);
+                            // Replace method handle in lambda factory INVOKEDYNAMIC
+                            call.bsmArgs[1] = new Handle(Opcodes.H_INVOKESTATIC, cls.name(), syn.name, syn.desc, false);
+                            LOGGER.debug("Patching @Bind method reference for {} in {};{}{}#{}", binding.target(), cls.name(), method.name, method.desc, lineNumber);
+                            // Shared bridges don't add another call site
+                            if (bridges.size() != created) sites += 1;
                             changed = true;
                         }
                     }
                 }
             }
         }
-        return new MethodResult(method, changed, synthetics);
+        return new MethodResult(method, changed, sites);
     }
     
-    private static InvokeDynamicInsnNode transformInstruction(int handleCode, Dye.MethodTarget target, Dye.MethodTarget metaFactory, ClassNode cls, MethodNode method, int lineNumber) {
-        String targetDescriptor = getTargetDescriptor(handleCode, target);
-        Handle bootstrap = new Handle(Opcodes.H_INVOKESTATIC, metaFactory.type(), metaFactory.name(), metaFactory.descriptor(), false);
-        Object[] args = switch (metaFactory.descriptor()) {
-            case META_FACTORY_DESCRIPTOR -> new Object[]{};
-            case META_FACTORY_DESCRIPTOR_D -> new Object[]{ new ConstantDynamic(
-                    "dynamic", DynamicFactory.RESULT, new Handle(
-                            Opcodes.H_INVOKESTATIC, DynamicFactory.class.getName().replace('.', '/'),
-                            DynamicFactory.METHOD, DynamicFactory.DESCRIPTOR, false
-                    ),
-                    new Handle(
-                            getHandleTag(getCallOpcode(cls, method), method.name), cls.name, method.name, method.desc,
-                            getCallOpcode(cls, method) == Opcodes.INVOKEINTERFACE
-                    ),
-                    cls.sourceFile == null ? "" : cls.sourceFile,
+    static boolean isLambdaFactory(Handle bsm) {
+        return LAMBDA_FACTORY_TYPE.equals(bsm.getOwner()) && LAMBDA_FACTORY_METHOD.equals(bsm.getName());
+    }
+    
+    // Creates the synthetic method that is used instead of a @Bind method in method references.
+    static MethodNode createBridge(int handleCode, Binding binding, ClassContext cls, MethodContext method, int index, int lineNumber) {
+        MethodNode syn = new MethodNode(
+                Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                "dynamic$" + namePart(method.name()) + "$" + namePart(binding.target().name()) + "$" + index,
+                binding.descriptor(handleCode), null, null
+        );
+        AbstractInsnNode indy = transformInstruction(handleCode, binding, cls, new MethodContext(syn.name, syn.access, syn.desc), lineNumber);
+        DescriptorParser.Result desc = binding.type(handleCode);
+        
+        int currentIdx = 0; // Index to load parameters
+        for (DescriptorParser.Entry arg : desc.args()) {
+            syn.instructions.add(new VarInsnNode(arg.type().opcodeLoad, currentIdx));
+            currentIdx += arg.type().size;
+        }
+        syn.instructions.add(indy);
+        syn.instructions.add(new InsnNode(desc.ret().type().opcodeReturn));
+        // Set here as the streaming transformer does not compute them
+        syn.maxLocals = currentIdx;
+        syn.maxStack = Math.max(currentIdx, desc.ret().type().size);
+        return syn;
+    }
+    
+    static AbstractInsnNode transformInstruction(int handleCode, Binding binding, ClassContext cls, MethodContext method, int lineNumber) {
+        Handle bootstrap = binding.bootstrap();
+        if (binding.constant()) {
+            // Constants are loaded directly, without any call site
+            String desc = binding.target().descriptor();
+            if (handleCode != Opcodes.H_INVOKESTATIC || !desc.startsWith("()") || desc.endsWith(")V")) {
+                throw new RuntimeException("Dye transformer: Invalid @BindConstant target: must be static without arguments and not return void: " + binding.target());
+            }
+            return new LdcInsnNode(new ConstantDynamic(binding.target().name(), desc.substring(2), bootstrap));
+        }
+        Handle source = !binding.withDynamic() ? null : new Handle(
+                getHandleTag(getCallOpcode(cls, method), method.name()), cls.name(), method.name(), method.desc(),
+                getCallOpcode(cls, method) == Opcodes.INVOKEINTERFACE
+        );
+        List<Object> staticArgs = binding.args();
+        Object[] args = new Object[(source == null ? 0 : 1) + staticArgs.size()];
+        if (source != null) {
+            args[0] = new ConstantDynamic(
+                    "dynamic", DynamicFactory.RESULT, DYNAMIC_FACTORY, source,
+                    cls.sourceFile() == null ? "" : cls.sourceFile(),
                     lineNumber
-            ) };
-            default -> throw new RuntimeException("Dye transformer: Invalid @Bind target: invalid metafactory descriptor: " + metaFactory.descriptor());
-        };
-        return new InvokeDynamicInsnNode(target.name(), targetDescriptor, bootstrap, args);
+            );
+        }
+        // Static arguments from the binding follow the Dynamic
+        for (int i = 0; i < staticArgs.size(); i++) {
+            args[args.length - staticArgs.size() + i] = staticArg(staticArgs.get(i));
+        }
+        if (cls.features() != 0) {
+            // Go through the dye bootstrap, which calls the metafactory
+            // Profiled and registered sites get a dense id, that is only valid in this JVM
+            int site = (cls.features() & DyeBootstrap.SITE_IDS) == 0 ? -1 : SiteProfiler.register(
+                    cls.name(), method.name() + method.desc(), cls.sourceFile(), lineNumber, binding.target().toString()
+            );
+            // The Dynamic is different for every call site, so these can't be shared
+            int features = source == null ? cls.features() : cls.features() & ~DyeBootstrap.SHARE;
+            if (cls.prelink() != null) {
+                Prelinker.record(cls.prelink(), site, bootstrap, binding.target().toString(), (features & DyeBootstrap.SHARE) != 0, binding.target().name(), binding.descriptor(handleCode), source, staticArgs, cls.sourceFile(), lineNumber);
+            }
+            Object[] trampolineArgs = new Object[4 + args.length];
+            trampolineArgs[0] = bootstrap;
+            trampolineArgs[1] = binding.target().toString();
+            trampolineArgs[2] = features;
+            trampolineArgs[3] = site;
+            System.arraycopy(args, 0, trampolineArgs, 4, args.length);
+            bootstrap = DYE_BOOTSTRAP;
+            args = trampolineArgs;
+        }
+        return new InvokeDynamicInsnNode(binding.target().name(), binding.descriptor(handleCode), bootstrap, args);
     }
     
-    private static String getTargetDescriptor(int handleCode, Dye.MethodTarget target) {
-        if (handleCode == Opcodes.H_INVOKESTATIC) {
-            return target.descriptor();
-        } else if (target.descriptor().startsWith("(")) {
-            // Add this reference as first argument
-            return "(L" + target.type() + ";" + target.descriptor().substring(1);
+    // Primitive classes have no CONSTANT_Class, they are loaded through a dynamic constant
+    private static Object staticArg(Object arg) {
+        if (arg instanceof Type type && type.getSort() < Type.ARRAY) {
+            return new ConstantDynamic(type.getDescriptor(), "Ljava/lang/Class;", PRIMITIVE_CLASS);
         } else {
-            throw new RuntimeException("Dye transformer: Invalid method descriptor: " + target.descriptor());
+            return arg;
         }
     }
-    
-    private static int getCallOpcode(ClassNode cls, MethodNode method) {
-        if ("<init>".equals(method.name)) {
+
+    private static int getCallOpcode(ClassContext cls, MethodContext method) {
+        if ("<init>".equals(method.name())) {
             return Opcodes.INVOKESPECIAL;
-        } else if ((method.access & Opcodes.ACC_STATIC) != 0) {
+        } else if ((method.access() & Opcodes.ACC_STATIC) != 0) {
             return Opcodes.INVOKESTATIC;
-        } else if ((cls.access & Opcodes.ACC_INTERFACE) != 0 || (cls.access & Opcodes.ACC_ANNOTATION) != 0) {
+        } else if ((cls.access() & Opcodes.ACC_INTERFACE) != 0 || (cls.access() & Opcodes.ACC_ANNOTATION) != 0) {
             return Opcodes.INVOKEINTERFACE;
-        } else if ((method.access & Modifier.PRIVATE) != 0) {
+        } else if ((method.access() & Modifier.PRIVATE) != 0) {
             return Opcodes.INVOKESPECIAL;
         } else {
             return Opcodes.INVOKEVIRTUAL;
         }
     }
     
-    private static int getHandleTag(int opcode, String methodName) {
+    static int getHandleTag(int opcode, String methodName) {
         return switch (opcode) {
             case Opcodes.INVOKEVIRTUAL -> Opcodes.H_INVOKEVIRTUAL;
             case Opcodes.INVOKESPECIAL -> "<init>".equals(methodName) ? Opcodes.H_NEWINVOKESPECIAL : Opcodes.H_INVOKESPECIAL;
@@ -194,5 +268,61 @@ public class DyeTransformer {
         }
     }
     
-    private static record MethodResult(MethodNode method, boolean changed, List<MethodNode> synthetics) {}
+    /**
+     * The result of a transformation.
+     * 
+     * @param changed Whether anything in the class was changed.
+     * @param sites The amount of generated INVOKEDYNAMIC instructions.
+     * @param synthetics The amount of added synthetic methods.
+     */
+    public static record Result(boolean changed, int sites, int synthetics) {}
+    
+    private static record MethodResult(MethodNode method, boolean changed, int sites) {}
+
+    /**
+     * The synthetic methods generated for method references in a class. References to the same bound method with
+     * the same handle kind share one bridge, unless the metafactory takes a {@link io.github.noeppi_noeppi.tools.dye.api.Dynamic},
+     * which differs for every reference.
+     */
+    static class Bridges {
+
+        private final Map<String, MethodNode> shared = new HashMap<>();
+        private final List<MethodNode> synthetics = new ArrayList<>();
+
+        MethodNode get(int handleCode, Binding binding, ClassContext cls, MethodContext method, int lineNumber) {
+            if (binding.withDynamic()) {
+                return this.create(handleCode, binding, cls, method, lineNumber);
+            }
+            String key = handleCode + ":" + binding.target();
+            MethodNode syn = this.shared.get(key);
+            if (syn == null) {
+                syn = this.create(handleCode, binding, cls, method, lineNumber);
+                this.shared.put(key, syn);
+            }
+            return syn;
+        }
+
+        private MethodNode create(int handleCode, Binding binding, ClassContext cls, MethodContext method, int lineNumber) {
+            MethodNode syn = createBridge(handleCode, binding, cls, method, this.synthetics.size(), lineNumber);
+            this.synthetics.add(syn);
+            return syn;
+        }
+
+        int size() {
+            return this.synthetics.size();
+        }
+
+        List<MethodNode> synthetics() {
+            return this.synthetics;
+        }
+    }
+    
+    // The class and method that contain a call site, independent of the tree API
+    static record ClassContext(String name, int access, String sourceFile, int features, Prelinker.Group prelink) {
+
+        static ClassContext of(String name, int access, String sourceFile, int features) {
+            return new ClassContext(name, access, sourceFile, features, (features & DyeBootstrap.PRELINK) == 0 ? null : Prelinker.group(name));
+        }
+    }
+    static record MethodContext(String name, int access, String desc) {}
 }
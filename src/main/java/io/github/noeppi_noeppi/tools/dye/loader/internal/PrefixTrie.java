@@ -0,0 +1,71 @@
+package io.github.noeppi_noeppi.tools.dye.loader.internal;
+
+import java.util.Arrays;
+
+/**
+ * Maps string prefixes to values. A lookup yields the value of the longest prefix of the key, that was added
+ * to the trie. Lookups don't allocate, so they can be done for every class that is loaded.
+ */
+public class PrefixTrie<T> {
+
+    private final Node<T> root = new Node<>();
+
+    /**
+     * Adds a prefix to the trie. If the prefix is already present, its value is replaced.
+     */
+    public void put(String prefix, T value) {
+        Node<T> node = this.root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.child(prefix.charAt(i), true);
+        }
+        node.value = value;
+    }
+
+    /**
+     * Gets the value of the longest prefix of the given key or {@code null} if no prefix matches.
+     */
+    public T find(String key) {
+        Node<T> node = this.root;
+        T result = node.value;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.child(key.charAt(i), false);
+            if (node == null) break;
+            if (node.value != null) result = node.value;
+        }
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return this.root.keys.length == 0 && this.root.value == null;
+    }
+
+    // Children are stored in sorted arrays, package names only
+    // have a few distinct characters per position.
+    private static class Node<T> {
+
+        private char[] keys = new char[0];
+        @SuppressWarnings("unchecked")
+        private Node<T>[] children = new Node[0];
+        private T value;
+
+        private Node<T> child(char key, boolean create) {
+            int idx = Arrays.binarySearch(this.keys, key);
+            if (idx >= 0) return this.children[idx];
+            if (!create) return null;
+            int insert = -(idx + 1);
+            char[] keys = new char[this.keys.length + 1];
+            @SuppressWarnings("unchecked")
+            Node<T>[] children = new Node[this.children.length + 1];
+            System.arraycopy(this.keys, 0, keys, 0, insert);
+            System.arraycopy(this.children, 0, children, 0, insert);
+            System.arraycopy(this.keys, insert, keys, insert + 1, this.keys.length - insert);
+            System.arraycopy(this.children, insert, children, insert + 1, this.children.length - insert);
+            Node<T> node = new Node<>();
+            keys[insert] = key;
+            children[insert] = node;
+            this.keys = keys;
+            this.children = children;
+            return node;
+        }
+    }
+}
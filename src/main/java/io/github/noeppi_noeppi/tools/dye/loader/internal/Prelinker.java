@@ -0,0 +1,336 @@
+package io.github.noeppi_noeppi.tools.dye.loader.internal;
+
+import io.github.noeppi_noeppi.tools.dye.api.Dynamic;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Links call sites ahead of time on background threads. The transformer records every call site of a class in a
+ * {@link Group}. When the first call site of a class is bootstrapped, the lookup of the class is available and the
+ * metafactories for all other call sites of the class are invoked in the background. Their bootstrap then only
+ * takes the prepared {@link CallSite}. Call sites, that are bootstrapped before their metafactory ran in the
+ * background, are linked as usual.
+ *
+ * Call sites, that are not bootstrapped within {@code dye.prelink.expiry} seconds (60 by default) after they were
+ * recorded or prelinked, expire. Their prelinked call site is dropped, so it does not keep the class loader of the
+ * calling class alive, and they are linked as usual if they are reached later.
+ */
+public class Prelinker {
+
+    private static final Logger LOGGER = LogManager.getLogger(Prelinker.class);
+
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int TAKEN = 3;
+    private static final int CLAIMED = 4;
+    private static final int FAILED = 5;
+    private static final int EXPIRED = 6;
+
+    private static final long EXPIRY = TimeUnit.SECONDS.toNanos(Long.getLong("dye.prelink.expiry", 60));
+
+    private static final Map<Integer, Entry> ENTRIES = new ConcurrentHashMap<>();
+    private static final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + EXPIRY);
+    private static volatile int threads = 0;
+    private static ScheduledExecutorService executor = null;
+
+    private static final LongAdder prelinked = new LongAdder();
+    private static final LongAdder used = new LongAdder();
+    private static final LongAdder onDemand = new LongAdder();
+    private static final LongAdder failed = new LongAdder();
+    private static final LongAdder expired = new LongAdder();
+    private static final LongAdder nanos = new LongAdder();
+
+    /**
+     * Enables prelinking on the given number of background threads. The threads are only created when the first
+     * prelinked call site is bootstrapped. Does nothing if prelinking is already enabled.
+     */
+    public static synchronized void start(int threads) {
+        if (Prelinker.threads > 0) return;
+        Prelinker.threads = Math.max(1, threads);
+        LOGGER.info("Prelinking dye call sites on {} threads.", Prelinker.threads);
+    }
+
+    // Creates the threads on first use, returns null if prelinking is not enabled
+    private static synchronized ExecutorService executor() {
+        if (executor == null && threads > 0) {
+            AtomicInteger counter = new AtomicInteger(0);
+            executor = Executors.newScheduledThreadPool(threads, task -> {
+                Thread thread = new Thread(task, "Dye prelinker " + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Prelinked call sites, that are never taken, must not stay reachable when nothing is recorded anymore
+            executor.scheduleWithFixedDelay(Prelinker::sweep, EXPIRY, Math.max(1, EXPIRY), TimeUnit.NANOSECONDS);
+        }
+        return executor;
+    }
+
+    /**
+     * Creates a new group for the call sites of a class, that is being transformed.
+     */
+    public static Group group(String cls) {
+        return new Group(cls);
+    }
+
+    /**
+     * Records a call site.
+     *
+     * @param site The id of the call site in the {@link SiteProfiler}.
+     * @param target The bound method, used as key in {@link SharedTargets}.
+     * @param share Whether the target of the call site may be shared, see {@link DyeBootstrap#SHARE}.
+     * @param source The handle to the method that contains the call site, if the metafactory takes a {@link Dynamic}.
+     * @param args The static arguments of the binding.
+     */
+    public static void record(Group group, int site, Handle metaFactory, String target, boolean share, String name, String desc, Handle source, List<Object> args, String file, int line) {
+        Entry entry = new Entry(group, metaFactory, target, share, name, desc, source, args, file, line);
+        synchronized (group) {
+            group.entries.add(entry);
+        }
+        ENTRIES.put(site, entry);
+        // Entries of classes, that are never defined or whose call sites are never reached, expire here
+        long now = System.nanoTime();
+        long next = nextSweep.get();
+        if (now - next >= 0 && nextSweep.compareAndSet(next, now + EXPIRY)) {
+            sweep();
+        }
+    }
+
+    /**
+     * Takes the prelinked call site for the given site id. If this is the first call site of its class, that is
+     * bootstrapped, prelinking of the other call sites in the class is started. For call sites, that share their
+     * target, this is delayed until the caller has linked the call site and calls {@link #linked(int, MethodHandles.Lookup)},
+     * so the other call sites can use the shared target.
+     *
+     * @return The prelinked call site or {@code null} if the call site needs to be linked by the caller.
+     */
+    public static CallSite take(int site, MethodHandles.Lookup lookup) {
+        Entry entry = ENTRIES.get(site);
+        if (entry == null) return null;
+        if (!entry.share) entry.group.start(lookup);
+        while (true) {
+            int state = entry.state.get();
+            if (state == DONE) {
+                if (entry.state.compareAndSet(DONE, TAKEN)) {
+                    ENTRIES.remove(site);
+                    used.increment();
+                    CallSite result = entry.result;
+                    entry.result = null;
+                    return result;
+                }
+            } else if (state == PENDING || state == RUNNING) {
+                if (entry.state.compareAndSet(state, CLAIMED)) {
+                    // Shared call sites are removed in linked
+                    if (!entry.share) ENTRIES.remove(site);
+                    onDemand.increment();
+                    return null;
+                }
+            } else {
+                if (!entry.share) ENTRIES.remove(site);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Called after a call site was linked without a prelinked call site. Starts prelinking of the other call sites
+     * in the class, if that was delayed by {@link #take(int, MethodHandles.Lookup)}.
+     */
+    public static void linked(int site, MethodHandles.Lookup lookup) {
+        Entry entry = ENTRIES.remove(site);
+        if (entry == null) return;
+        // The call site may have used a shared target without being taken
+        entry.state.compareAndSet(PENDING, CLAIMED);
+        entry.group.start(lookup);
+    }
+
+    /**
+     * Logs how many call sites were linked ahead of time and how many of them were used.
+     */
+    public static void printStats() {
+        LOGGER.info("Dye prelinked {} call sites in {} ms: {} used, {} linked on demand, {} failed, {} expired.", prelinked.sum(), TimeUnit.NANOSECONDS.toMillis(nanos.sum()), used.sum(), onDemand.sum(), failed.sum(), expired.sum());
+    }
+
+    // Removes all entries, that were not taken before their deadline
+    static void sweep() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Integer, Entry>> itr = ENTRIES.entrySet().iterator();
+        while (itr.hasNext()) {
+            Entry entry = itr.next().getValue();
+            // Read the state first, the deadline of a prelinked call site is set before it becomes DONE
+            int state = entry.state.get();
+            if (entry.deadline - now > 0) continue;
+            if ((state == PENDING || state == DONE) && entry.state.compareAndSet(state, EXPIRED)) {
+                entry.result = null;
+                expired.increment();
+                itr.remove();
+            } else if (state != RUNNING) {
+                itr.remove();
+            }
+        }
+    }
+
+    private static void link(Entry entry, MethodHandles.Lookup lookup) {
+        if (!entry.state.compareAndSet(PENDING, RUNNING)) return;
+        try {
+            Class<?> caller = lookup.lookupClass();
+            ClassLoader loader = caller.getClassLoader();
+            MethodType type = MethodType.fromMethodDescriptorString(entry.desc, loader);
+            MethodHandle shared = entry.share ? SharedTargets.get(loader, entry.target, type) : null;
+            CallSite site;
+            if (shared != null) {
+                site = new ConstantCallSite(shared);
+            } else {
+                site = metaFactory(entry, lookup, caller, type);
+                if (!site.type().equals(type)) {
+                    throw new IllegalStateException("Call site of wrong type: " + site.type() + ", expected " + type);
+                }
+                // Same as the dye bootstrap, so shared and prelinked call sites don't run the metafactory again
+                if (entry.share && site instanceof ConstantCallSite) {
+                    MethodHandle handle = SharedTargets.share(loader, entry.target, type, site.getTarget());
+                    if (handle != site.getTarget()) site = new ConstantCallSite(handle);
+                }
+            }
+            entry.result = site;
+            // Give the call site time to be reached, counted from now
+            entry.deadline = System.nanoTime() + EXPIRY;
+            if (entry.state.compareAndSet(RUNNING, DONE)) {
+                prelinked.increment();
+            } else {
+                // Already linked on demand
+                entry.result = null;
+            }
+        } catch (Throwable e) {
+            // The call site is linked on demand, so the error is reported there
+            LOGGER.debug("Failed to prelink call site of {} in {}", entry.name, entry.group.cls, e);
+            if (entry.state.compareAndSet(RUNNING, FAILED)) failed.increment();
+        }
+    }
+
+    // Invokes the metafactory of the call site the same way the dye bootstrap does
+    private static CallSite metaFactory(Entry entry, MethodHandles.Lookup lookup, Class<?> caller, MethodType type) throws Throwable {
+        ClassLoader loader = caller.getClassLoader();
+        Class<?> factoryClass = Class.forName(entry.metaFactory.getOwner().replace('/', '.'), false, loader);
+        MethodHandle factory = lookup.findStatic(factoryClass, entry.metaFactory.getName(), MethodType.fromMethodDescriptorString(entry.metaFactory.getDesc(), loader));
+        if (entry.source == null && entry.args.isEmpty()) {
+            return (CallSite) factory.invoke(lookup, entry.name, type);
+        } else if (entry.args.isEmpty()) {
+            Dynamic dynamic = new Dynamic(source(lookup, caller, entry.source), entry.file, entry.line);
+            return (CallSite) factory.invoke(lookup, entry.name, type, dynamic);
+        } else {
+            List<Object> factoryArgs = new ArrayList<>(List.of(lookup, entry.name, type));
+            if (entry.source != null) {
+                factoryArgs.add(new Dynamic(source(lookup, caller, entry.source), entry.file, entry.line));
+            }
+            for (Object arg : entry.args) {
+                factoryArgs.add(resolve(lookup, loader, arg));
+            }
+            return (CallSite) factory.invokeWithArguments(factoryArgs);
+        }
+    }
+
+    // Resolves a static argument like the JVM does for INVOKEDYNAMIC
+    private static Object resolve(MethodHandles.Lookup lookup, ClassLoader loader, Object arg) throws ReflectiveOperationException {
+        if (arg instanceof Type type) {
+            return MethodType.fromMethodDescriptorString("()" + type.getDescriptor(), loader).returnType();
+        } else if (arg instanceof Handle handle) {
+            Class<?> owner = Class.forName(handle.getOwner().replace('/', '.'), false, loader);
+            return lookup.findStatic(owner, handle.getName(), MethodType.fromMethodDescriptorString(handle.getDesc(), loader));
+        } else {
+            return arg;
+        }
+    }
+
+    private static MethodHandle source(MethodHandles.Lookup lookup, Class<?> caller, Handle source) throws ReflectiveOperationException {
+        MethodType type = MethodType.fromMethodDescriptorString(source.getDesc(), caller.getClassLoader());
+        return switch (source.getTag()) {
+            case Opcodes.H_INVOKESTATIC -> lookup.findStatic(caller, source.getName(), type);
+            case Opcodes.H_INVOKESPECIAL -> lookup.findSpecial(caller, source.getName(), type, caller);
+            case Opcodes.H_NEWINVOKESPECIAL -> lookup.findConstructor(caller, type);
+            default -> lookup.findVirtual(caller, source.getName(), type);
+        };
+    }
+
+    public static class Group {
+
+        private final String cls;
+        private final List<Entry> entries = new ArrayList<>();
+        private final AtomicBoolean started = new AtomicBoolean(false);
+
+        private Group(String cls) {
+            this.cls = cls;
+        }
+
+        private void start(MethodHandles.Lookup lookup) {
+            if (!this.started.compareAndSet(false, true)) return;
+            ExecutorService executor = executor();
+            if (executor == null) return;
+            List<Entry> entries;
+            synchronized (this) {
+                entries = List.copyOf(this.entries);
+                this.entries.clear();
+            }
+            try {
+                executor.execute(() -> {
+                    long start = System.nanoTime();
+                    for (Entry entry : entries) {
+                        link(entry, lookup);
+                    }
+                    long time = System.nanoTime() - start;
+                    nanos.add(time);
+                    LOGGER.debug("Prelinked {} call sites of {} in {} ms.", entries.size(), this.cls, TimeUnit.NANOSECONDS.toMillis(time));
+                });
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("Failed to schedule prelinking for {}", this.cls);
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final Group group;
+        private final Handle metaFactory;
+        private final String target;
+        private final boolean share;
+        private final String name;
+        private final String desc;
+        private final Handle source;
+        private final List<Object> args;
+        private final String file;
+        private final int line;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private volatile CallSite result;
+        private volatile long deadline = System.nanoTime() + EXPIRY;
+
+        private Entry(Group group, Handle metaFactory, String target, boolean share, String name, String desc, Handle source, List<Object> args, String file, int line) {
+            this.group = group;
+            this.metaFactory = metaFactory;
+            this.target = target;
+            this.share = share;
+            this.name = name;
+            this.desc = desc;
+            this.source = source;
+            this.args = args;
+            this.file = file;
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.noeppi_noeppi.tools.dye.loader.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Targets of constant call sites, that are shared between all call sites for the same bound method and type in a
+ * class loader. Class loaders are weak keys. The keys inside a class loader are strings, and the targets are only
+ * weakly referenced, as they are kept alive by the call sites anyway. That way nothing in the cache keeps a class
+ * loader alive.
+ */
+public class SharedTargets {
+
+    // Bootstrap class loader is null, which is not allowed in a WeakHashMap
+    private static final Map<String, WeakReference<MethodHandle>> BOOTSTRAP = new HashMap<>();
+    private static final Map<ClassLoader, Map<String, WeakReference<MethodHandle>>> TARGETS = new WeakHashMap<>();
+
+    /**
+     * Gets the shared target for a bound method in a class loader or {@code null} if there is none.
+     */
+    public static MethodHandle get(ClassLoader loader, String target, MethodType type) {
+        synchronized (TARGETS) {
+            Map<String, WeakReference<MethodHandle>> targets = loader == null ? BOOTSTRAP : TARGETS.get(loader);
+            if (targets == null) return null;
+            String key = key(target, type);
+            WeakReference<MethodHandle> ref = targets.get(key);
+            if (ref == null) return null;
+            MethodHandle handle = ref.get();
+            if (handle == null) targets.remove(key);
+            return handle;
+        }
+    }
+
+    /**
+     * Shares a target for a bound method in a class loader. If another thread shared a target first, that target
+     * is returned instead.
+     */
+    public static MethodHandle share(ClassLoader loader, String target, MethodType type, MethodHandle handle) {
+        synchronized (TARGETS) {
+            Map<String, WeakReference<MethodHandle>> targets = loader == null ? BOOTSTRAP : TARGETS.computeIfAbsent(loader, k -> new HashMap<>());
+            String key = key(target, type);
+            WeakReference<MethodHandle> ref = targets.get(key);
+            MethodHandle existing = ref == null ? null : ref.get();
+            if (existing != null) return existing;
+            targets.put(key, new WeakReference<>(handle));
+            return handle;
+        }
+    }
+
+    // Descriptors are unique inside a class loader and don't reference any classes
+    private static String key(String target, MethodType type) {
+        return target + "\t" + type.toMethodDescriptorString();
+    }
+}
@@ -0,0 +1,161 @@
+package io.github.noeppi_noeppi.tools.dye.loader.internal;
+
+import io.github.noeppi_noeppi.tools.dye.api.CallSiteRegistry;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Invocation counters for profiled call sites. Every call site gets a dense id when its class is transformed, so
+ * the ids are only valid in the JVM that transformed the class. Invocations are counted for every call and the
+ * latency is measured for a random sample of the calls. The location of a site is also used to record it in the
+ * {@link CallSiteRegistry}.
+ */
+public class SiteProfiler {
+
+    // Every n-th call on average is timed
+    private static final int SAMPLE_RATE = Math.max(1, Integer.getInteger("dye.profile.sampleRate", 1024));
+
+    private static final MethodHandle ENTER;
+    private static final MethodHandle RECORD;
+    private static final MethodHandle RECORD_VOID;
+    private static final MethodHandle NANO_TIME;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            ENTER = lookup.findVirtual(Site.class, "enter", MethodType.methodType(boolean.class));
+            RECORD = lookup.findVirtual(Site.class, "record", MethodType.methodType(Object.class, long.class, Object.class));
+            RECORD_VOID = lookup.findVirtual(Site.class, "record", MethodType.methodType(void.class, long.class));
+            NANO_TIME = lookup.findStatic(System.class, "nanoTime", MethodType.methodType(long.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to initialise dye profiler", e);
+        }
+    }
+
+    private static final Object LOCK = new Object();
+    private static volatile Site[] sites = new Site[256];
+    private static int size = 0;
+
+    /**
+     * Registers a new call site and returns its id.
+     */
+    public static int register(String cls, String method, String file, int line, String target) {
+        synchronized (LOCK) {
+            int id = size;
+            Site[] sites = SiteProfiler.sites;
+            if (id >= sites.length) {
+                sites = Arrays.copyOf(sites, sites.length * 2);
+            }
+            sites[id] = new Site(id, cls, method, file, line, target);
+            SiteProfiler.sites = sites;
+            size = id + 1;
+            return id;
+        }
+    }
+
+    /**
+     * Gets the call site with the given id or {@code null} if there is none.
+     */
+    public static Site get(int id) {
+        Site[] sites = SiteProfiler.sites;
+        return id >= 0 && id < sites.length ? sites[id] : null;
+    }
+
+    /**
+     * Gets all call sites, that were called at least once, ordered by the amount of calls.
+     */
+    public static List<Site> sites() {
+        List<Site> list = new ArrayList<>();
+        for (Site site : SiteProfiler.sites) {
+            if (site != null && site.calls() > 0) list.add(site);
+        }
+        list.sort(Comparator.comparingLong(Site::calls).reversed().thenComparingInt(Site::id));
+        return list;
+    }
+
+    public static class Site {
+
+        private final int id;
+        private final String cls;
+        private final String method;
+        private final String file;
+        private final int line;
+        private final String target;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder samples = new LongAdder();
+        private final LongAdder sampleNanos = new LongAdder();
+
+        private Site(int id, String cls, String method, String file, int line, String target) {
+            this.id = id;
+            this.cls = cls;
+            this.method = method;
+            this.file = file;
+            this.line = line;
+            this.target = target;
+        }
+
+        /**
+         * Wraps the target of the call site, so calls are counted and sampled.
+         */
+        public MethodHandle wrap(MethodHandle target) {
+            MethodType type = target.type();
+            MethodHandle record = type.returnType() == void.class ? RECORD_VOID.bindTo(this)
+                    : RECORD.bindTo(this).asType(MethodType.methodType(type.returnType(), long.class, type.returnType()));
+            MethodHandle timed = MethodHandles.foldArguments(MethodHandles.collectArguments(record, 1, target), NANO_TIME);
+            return MethodHandles.guardWithTest(ENTER.bindTo(this), timed, target);
+        }
+
+        // Counts the call and decides whether it should be timed
+        private boolean enter() {
+            this.calls.increment();
+            return ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0;
+        }
+
+        private Object record(long start, Object result) {
+            this.record(start);
+            return result;
+        }
+
+        private void record(long start) {
+            this.sampleNanos.add(System.nanoTime() - start);
+            this.samples.increment();
+        }
+
+        public int id() {
+            return this.id;
+        }
+
+        public String target() {
+            return this.target;
+        }
+
+        public CallSiteRegistry.Location location() {
+            return new CallSiteRegistry.Location(this.cls, this.method, this.file, this.line);
+        }
+
+        public long calls() {
+            return this.calls.sum();
+        }
+
+        /**
+         * Gets the average latency of the sampled calls in nanoseconds or {@code -1} if no call was sampled.
+         */
+        public long averageNanos() {
+            long samples = this.samples.sum();
+            return samples == 0 ? -1 : this.sampleNanos.sum() / samples;
+        }
+
+        @Override
+        public String toString() {
+            return this.location() + " -> " + this.target;
+        }
+    }
+}
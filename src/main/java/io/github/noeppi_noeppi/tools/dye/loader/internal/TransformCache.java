@@ -0,0 +1,394 @@
+package io.github.noeppi_noeppi.tools.dye.loader.internal;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Persistent cache of transformation results. Entries are keyed by a hash of the input class and the fingerprint
+ * of the {@link BindTable} it was transformed against. An entry either marks a class as unchanged or points to the
+ * transformed class in the data file.
+ *
+ * The index is a memory mapped open addressing hash table, so a lookup only touches the slots of its probe
+ * sequence. Entries are evicted by age and total data size when the cache is opened.
+ */
+public class TransformCache implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(TransformCache.class);
+
+    private static final int MAGIC = 0x44594543;
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 1 << 14;
+    private static final int KEY_SIZE = 16;
+
+    // Header: magic (4), version (4), capacity (4), count (4), data size (8), padding (8)
+    private static final int HEADER_SIZE = 32;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_COUNT = 12;
+    private static final int HEADER_DATA_SIZE = 16;
+
+    // Slot: key (16), state (4), length (4), offset (8), last used (8)
+    private static final int SLOT_SIZE = 40;
+    private static final int SLOT_STATE = 16;
+    private static final int SLOT_LENGTH = 20;
+    private static final int SLOT_OFFSET = 24;
+    private static final int SLOT_LAST_USED = 32;
+
+    private static final int STATE_EMPTY = 0;
+    private static final int STATE_UNCHANGED = 1;
+    private static final int STATE_TRANSFORMED = 2;
+
+    // Last used timestamps are only updated when they are older than this, so hits don't dirty pages all the time.
+    private static final long TOUCH_INTERVAL = Duration.ofHours(1).toMillis();
+
+    /**
+     * Marker returned by {@link #get(byte[])} for classes that are not changed by the transformer.
+     */
+    public static final byte[] UNCHANGED = new byte[0];
+
+    private final Path directory;
+    private final long maxSize;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+    // Readers update last used timestamps while holding the read lock, so they need to be serialized separately
+    private final Object touchLock = new Object();
+
+    private FileChannel data;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+    private long dataSize;
+
+    private TransformCache(Path directory, long maxSize, FileChannel lockChannel, FileLock lock) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+    }
+
+    /**
+     * Opens the cache in the given directory. Returns {@code null} if the cache is in use by another process or
+     * is already open in this process.
+     */
+    public static TransformCache open(Path directory, long maxSize, Duration maxAge) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve("cache.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // File locks are held by the whole process, the cache is open somewhere else in this JVM
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            LOGGER.warn("Dye transformation cache in {} is used by another process, not using it.", directory);
+            return null;
+        }
+        TransformCache cache = new TransformCache(directory, maxSize, lockChannel, lock);
+        try {
+            cache.load(maxAge);
+        } catch (IOException | RuntimeException e) {
+            cache.close();
+            throw e;
+        }
+        return cache;
+    }
+
+    /**
+     * Computes the cache key for a class transformed against a bind table with the given fingerprint and the
+     * given features of the {@link DyeBootstrap}.
+     */
+    public static byte[] key(byte[] fingerprint, int features, byte[] cls) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(fingerprint);
+            if (features != 0) {
+                digest.update(new byte[]{ (byte) (features >>> 24), (byte) (features >>> 16), (byte) (features >>> 8), (byte) features });
+            }
+            digest.update(cls);
+            return Arrays.copyOf(digest.digest(), KEY_SIZE);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Gets the cached result for a key. This is {@code null} if nothing is cached, {@link #UNCHANGED} if the class
+     * was not changed by the transformer and the transformed class otherwise.
+     */
+    public byte[] get(byte[] key) {
+        this.rwLock.readLock().lock();
+        try {
+            if (this.index == null) return null;
+            int slot = this.find(key);
+            if (slot < 0) return null;
+            int state = this.index.getInt(slot + SLOT_STATE);
+            if (state == STATE_EMPTY) {
+                return null;
+            } else if (state == STATE_UNCHANGED) {
+                this.touch(slot);
+                return UNCHANGED;
+            } else {
+                byte[] result = this.readData(this.index.getLong(slot + SLOT_OFFSET), this.index.getInt(slot + SLOT_LENGTH));
+                this.touch(slot);
+                return result;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read from dye transformation cache: {}", e.getMessage());
+            return null;
+        } finally {
+            this.rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether a key is cached as {@link #UNCHANGED}. Unlike {@link #get(byte[])}, this never reads the
+     * data file.
+     */
+    public boolean isUnchanged(byte[] key) {
+        this.rwLock.readLock().lock();
+        try {
+            if (this.index == null) return false;
+            int slot = this.find(key);
+            if (slot < 0 || this.index.getInt(slot + SLOT_STATE) != STATE_UNCHANGED) return false;
+            this.touch(slot);
+            return true;
+        } finally {
+            this.rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a result in the cache. A result of {@code null} or {@link #UNCHANGED} marks the class as unchanged.
+     */
+    public void put(byte[] key, byte[] result) {
+        this.rwLock.writeLock().lock();
+        try {
+            if (this.index == null) return;
+            if ((this.count + 1) * 4L > this.capacity * 3L) {
+                this.rebuild(this.entries(), this.capacity * 2);
+            }
+            int slot = this.find(key);
+            if (slot < 0 || this.index.getInt(slot + SLOT_STATE) != STATE_EMPTY) return;
+            if (result == null || result == UNCHANGED) {
+                this.writeSlot(slot, new Entry(key, STATE_UNCHANGED, 0, 0, System.currentTimeMillis()));
+            } else {
+                // Once the cache is full, new classes are only added on the next launch after eviction
+                if (this.dataSize + result.length > this.maxSize) return;
+                long offset = this.dataSize;
+                ByteBuffer buffer = ByteBuffer.wrap(result);
+                while (buffer.hasRemaining()) {
+                    this.data.write(buffer, offset + buffer.position());
+                }
+                this.dataSize += result.length;
+                this.index.putLong(HEADER_DATA_SIZE, this.dataSize);
+                this.writeSlot(slot, new Entry(key, STATE_TRANSFORMED, result.length, offset, System.currentTimeMillis()));
+            }
+            this.count += 1;
+            this.index.putInt(HEADER_COUNT, this.count);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write to dye transformation cache: {}", e.getMessage());
+        } finally {
+            this.rwLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.rwLock.writeLock().lock();
+        try {
+            if (this.index != null) this.index.force();
+            this.index = null;
+            if (this.indexChannel != null) this.indexChannel.close();
+            if (this.data != null) this.data.close();
+            this.lock.release();
+            this.lockChannel.close();
+        } finally {
+            this.rwLock.writeLock().unlock();
+        }
+    }
+
+    private void load(Duration maxAge) throws IOException {
+        Path indexFile = this.directory.resolve("index.bin");
+        Path dataFile = this.directory.resolve("data.bin");
+        List<Entry> entries = new ArrayList<>();
+        long oldDataSize = 0;
+        if (Files.isRegularFile(indexFile) && Files.isRegularFile(dataFile)) {
+            // Read the old index without mapping it, so the file can be rebuilt afterwards
+            ByteBuffer old = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+            int capacity = old.capacity() >= HEADER_SIZE ? old.getInt(HEADER_CAPACITY) : 0;
+            if (old.capacity() >= HEADER_SIZE && old.getInt(0) == MAGIC && old.getInt(4) == VERSION && capacity > 0
+                    && old.capacity() == HEADER_SIZE + (long) capacity * SLOT_SIZE
+                    && old.getLong(HEADER_DATA_SIZE) <= Files.size(dataFile)) {
+                oldDataSize = old.getLong(HEADER_DATA_SIZE);
+                for (int i = 0; i < capacity; i++) {
+                    Entry entry = readSlot(old, HEADER_SIZE + i * SLOT_SIZE);
+                    if (entry != null) entries.add(entry);
+                }
+            } else {
+                LOGGER.info("Dye transformation cache index in {} is invalid or outdated, discarding it.", this.directory);
+            }
+        }
+
+        // Evict by age, then by size, least recently used first
+        int total = entries.size();
+        long minTime = System.currentTimeMillis() - maxAge.toMillis();
+        entries.removeIf(e -> e.lastUsed() < minTime);
+        entries.sort(Comparator.comparingLong(Entry::lastUsed).reversed());
+        List<Entry> kept = new ArrayList<>();
+        long size = 0;
+        for (Entry entry : entries) {
+            if (entry.state() == STATE_TRANSFORMED) {
+                if (size + entry.length() > this.maxSize) continue;
+                size += entry.length();
+            }
+            kept.add(entry);
+        }
+
+        this.data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (kept.isEmpty()) {
+            this.data.truncate(0);
+        } else if (size != oldDataSize) {
+            // Compact the data file, so it only contains classes that are still referenced
+            Path newData = this.directory.resolve("data.bin.tmp");
+            List<Entry> moved = new ArrayList<>(kept.size());
+            try (FileChannel out = FileChannel.open(newData, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                long offset = 0;
+                for (Entry entry : kept) {
+                    if (entry.state() == STATE_TRANSFORMED) {
+                        ByteBuffer buffer = ByteBuffer.wrap(this.readData(entry.offset(), entry.length()));
+                        while (buffer.hasRemaining()) out.write(buffer, offset + buffer.position());
+                        moved.add(new Entry(entry.key(), entry.state(), entry.length(), offset, entry.lastUsed()));
+                        offset += entry.length();
+                    } else {
+                        moved.add(entry);
+                    }
+                }
+            }
+            this.data.close();
+            Files.move(newData, dataFile, StandardCopyOption.REPLACE_EXISTING);
+            this.data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            kept = moved;
+        }
+        this.dataSize = size;
+
+        this.indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexChannel.truncate(0);
+        int capacity = INITIAL_CAPACITY;
+        while ((kept.size() + 1) * 4L > capacity * 3L) capacity *= 2;
+        this.rebuild(kept, capacity);
+        if (kept.size() != total) LOGGER.info("Evicted {} entries from dye transformation cache.", total - kept.size());
+        LOGGER.info("Opened dye transformation cache in {} with {} entries ({} bytes of classes).", this.directory, this.count, this.dataSize);
+    }
+
+    // Maps the index file with the given capacity and fills it with the given entries.
+    private void rebuild(List<Entry> entries, int capacity) throws IOException {
+        this.index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        byte[] zero = new byte[SLOT_SIZE * 64];
+        for (int pos = 0; pos < this.index.capacity(); pos += zero.length) {
+            this.index.put(pos, zero, 0, Math.min(zero.length, this.index.capacity() - pos));
+        }
+        this.capacity = capacity;
+        for (Entry entry : entries) {
+            this.writeSlot(this.find(entry.key()), entry);
+        }
+        this.count = entries.size();
+        this.index.putInt(HEADER_CAPACITY, this.capacity);
+        this.index.putInt(HEADER_COUNT, this.count);
+        this.index.putLong(HEADER_DATA_SIZE, this.dataSize);
+        this.index.putInt(4, VERSION);
+        this.index.putInt(0, MAGIC);
+    }
+
+    private List<Entry> entries() {
+        List<Entry> entries = new ArrayList<>(this.count);
+        for (int i = 0; i < this.capacity; i++) {
+            Entry entry = readSlot(this.index, HEADER_SIZE + i * SLOT_SIZE);
+            if (entry != null) entries.add(entry);
+        }
+        return entries;
+    }
+
+    // Finds the slot for a key. This is either the slot that holds the key or the empty slot where it would be inserted.
+    private int find(byte[] key) {
+        int mask = this.capacity - 1;
+        int idx = ((key[0] & 0xFF) << 24 | (key[1] & 0xFF) << 16 | (key[2] & 0xFF) << 8 | (key[3] & 0xFF)) & mask;
+        for (int i = 0; i < this.capacity; i++) {
+            int slot = HEADER_SIZE + idx * SLOT_SIZE;
+            if (this.index.getInt(slot + SLOT_STATE) == STATE_EMPTY || this.keyEquals(slot, key)) {
+                return slot;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(int slot, byte[] key) {
+        for (int i = 0; i < KEY_SIZE; i++) {
+            if (this.index.get(slot + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    // Must be called with the read lock held
+    private void touch(int slot) {
+        long now = System.currentTimeMillis();
+        if (now - this.index.getLong(slot + SLOT_LAST_USED) > TOUCH_INTERVAL) {
+            synchronized (this.touchLock) {
+                if (now - this.index.getLong(slot + SLOT_LAST_USED) > TOUCH_INTERVAL) {
+                    this.index.putLong(slot + SLOT_LAST_USED, now);
+                }
+            }
+        }
+    }
+
+    private void writeSlot(int slot, Entry entry) {
+        this.index.put(slot, entry.key(), 0, KEY_SIZE);
+        this.index.putInt(slot + SLOT_LENGTH, entry.length());
+        this.index.putLong(slot + SLOT_OFFSET, entry.offset());
+        this.index.putLong(slot + SLOT_LAST_USED, entry.lastUsed());
+        // Write state last, so a slot never looks filled before it's complete
+        this.index.putInt(slot + SLOT_STATE, entry.state());
+    }
+
+    private static Entry readSlot(ByteBuffer buffer, int slot) {
+        int state = buffer.getInt(slot + SLOT_STATE);
+        if (state != STATE_UNCHANGED && state != STATE_TRANSFORMED) return null;
+        byte[] key = new byte[KEY_SIZE];
+        buffer.get(slot, key);
+        return new Entry(key, state, buffer.getInt(slot + SLOT_LENGTH), buffer.getLong(slot + SLOT_OFFSET), buffer.getLong(slot + SLOT_LAST_USED));
+    }
+
+    private byte[] readData(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (this.data.read(buffer, offset + buffer.position()) < 0) throw new IOException("Truncated dye cache data file");
+        }
+        return buffer.array();
+    }
+
+    private static record Entry(byte[] key, int state, int length, long offset, long lastUsed) {}
+}
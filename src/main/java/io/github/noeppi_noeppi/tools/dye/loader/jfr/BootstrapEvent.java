@@ -0,0 +1,31 @@
+package io.github.noeppi_noeppi.tools.dye.loader.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Invocation of a metafactory when a dye call site is linked. The duration of the event is the bootstrap latency.
+ * These are only emitted for classes that were transformed while the event was enabled.
+ */
+@Name("dye.Bootstrap")
+@Label("Dye Call Site Bootstrap")
+@Category("Dye")
+@Description("Invocation of a metafactory for a call to a bound method")
+public class BootstrapEvent extends Event {
+
+    @Label("Caller")
+    public Class<?> caller;
+
+    @Label("Target")
+    public String target;
+
+    @Label("Metafactory")
+    public String metaFactory;
+
+    @Label("Shared")
+    @Description("Whether the target was shared with another call site instead of invoking the metafactory")
+    public boolean shared;
+
+    @Label("Prelinked")
+    @Description("Whether the call site was linked ahead of time on a background thread")
+    public boolean prelinked;
+}
@@ -0,0 +1,27 @@
+package io.github.noeppi_noeppi.tools.dye.loader.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Loading the dye bindings of a single module, jar or class.
+ */
+@Name("dye.Discovery")
+@Label("Dye Binding Discovery")
+@Category("Dye")
+@Description("Loading dye bindings from a module, jar or class")
+@StackTrace(false)
+public class DiscoveryEvent extends Event {
+
+    @Label("Loader")
+    public String loader;
+
+    @Label("Source")
+    public String source;
+
+    @Label("Bindings")
+    public int bindings;
+
+    @Label("Indexed")
+    @Description("Whether the bindings were read from the binding index instead of scanning classes")
+    public boolean indexed;
+}
@@ -0,0 +1,30 @@
+package io.github.noeppi_noeppi.tools.dye.loader.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Transformation of a single class, that passed the prefilter.
+ */
+@Name("dye.Transform")
+@Label("Dye Class Transformation")
+@Category("Dye")
+@Description("Transformation of a class that may reference bound methods")
+@StackTrace(false)
+public class TransformEvent extends Event {
+
+    @Label("Class")
+    public String className;
+
+    @Label("Sites Patched")
+    public int sites;
+
+    @Label("Synthetics Added")
+    public int synthetics;
+
+    @Label("Changed")
+    public boolean changed;
+
+    @Label("Cached")
+    @Description("Whether the result was taken from the transformation cache")
+    public boolean cached;
+}
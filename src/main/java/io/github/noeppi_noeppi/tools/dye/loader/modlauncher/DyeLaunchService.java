@@ -5,20 +5,63 @@ import cpw.mods.modlauncher.api.IModuleLayerManager;
 import cpw.mods.modlauncher.api.NamedPath;
 import cpw.mods.modlauncher.serviceapi.ILaunchPluginService;
 import io.github.noeppi_noeppi.tools.dye.loader.DyeLoader;
+import io.github.noeppi_noeppi.tools.dye.loader.internal.PrefixTrie;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
 
-import java.util.EnumSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
 
 public class DyeLaunchService implements ILaunchPluginService {
 
+    private static final Logger LOGGER = LogManager.getLogger(DyeLaunchService.class);
+
     private static final EnumSet<Phase> TRANSFORM = EnumSet.of(Phase.AFTER);
     private static final EnumSet<Phase> DISCARD = EnumSet.noneOf(Phase.class);
+    private static final String MIXIN_PLUGIN = "mixin";
+    private static final String CLASSLOADING_REASON = "classloading";
+    
+    private static final List<String> DEFAULT_EXCLUDES = List.of(
+            "java/", "javax/", "scala/", "cpw/mods/modlauncher/", "com/sun/", "sun/", "jdk/internal/"
+    );
     
     private final DyeLoader loader;
+    // Package prefixes that are always (true) or never (false) transformed. The longest prefix wins.
+    private final PrefixTrie<Boolean> filter;
+    private Map<String, Module> packages = null;
+    // Modules that can see a module with bound methods. Classes from other modules in the game layer are skipped.
+    private Set<Module> candidates = null;
+    // Mixins can add calls to bound methods, that are not in the original bytes
+    private ILaunchPluginService mixin = null;
 
     public DyeLaunchService() {
         this.loader = new DyeLoader();
+        this.loader.applySystemProperties();
+        this.filter = new PrefixTrie<>();
+        for (String prefix : DEFAULT_EXCLUDES) {
+            this.filter.put(prefix, false);
+        }
+        for (String prefix : prefixes(System.getProperty("dye.exclude"))) {
+            this.filter.put(prefix, false);
+        }
+        for (String prefix : prefixes(System.getProperty("dye.include"))) {
+            this.filter.put(prefix, true);
+        }
+    }
+    
+    // Reads a comma separated list of package prefixes like com.example.mod
+    private static List<String> prefixes(String property) {
+        if (property == null) return List.of();
+        List<String> prefixes = new ArrayList<>();
+        for (String prefix : property.split(",")) {
+            prefix = prefix.trim().replace('.', '/');
+            if (prefix.isEmpty()) continue;
+            prefixes.add(prefix.endsWith("/") ? prefix : prefix + "/");
+        }
+        return prefixes;
     }
 
     @Override
@@ -30,21 +73,79 @@ public class DyeLaunchService implements ILaunchPluginService {
         return loader;
     }
 
+    /**
+     * Decides whether a class is transformed. Package prefixes from the {@code dye.include} and {@code dye.exclude}
+     * system properties (comma separated) take precedence. Classes targeted by mixins are always transformed, as
+     * mixins may add calls to bound methods. Otherwise, classes from modules that can't see any bound method and
+     * classes whose original bytes don't reference any bound method are skipped.
+     *
+     * Other transformers, such as coremods, run before dye as well, but can't be queried. If they add calls to bound
+     * methods to classes that don't reference any before, these classes must be included with {@code dye.include}.
+     */
     @Override
     public EnumSet<Phase> handlesClass(Type classType, boolean empty) {
         String cls = classType.getInternalName();
-        if (cls.startsWith("java/") || cls.startsWith("javax/") || cls.startsWith("scala/")
-                || cls.startsWith("cpw/mods/modlauncher/") || cls.startsWith("com/sun/")
-                || cls.startsWith("sun/") || cls.startsWith("jdk/internal/")) {
+        Boolean rule = this.filter.find(cls);
+        if (rule != null) {
+            return rule ? TRANSFORM : DISCARD;
+        }
+        Module module = this.getModule(cls);
+        if (module == null || this.targetedByMixin(classType, empty)) {
+            // Not cached as unchanged, as the mixins may change without the original bytes changing
+            return TRANSFORM;
+        } else if (!this.candidates.contains(module)) {
             return DISCARD;
-        } else {
+        }
+        byte[] data = this.readClass(module, cls);
+        if (data == null) {
             return TRANSFORM;
+        } else if (this.loader.mayTransform(data)) {
+            return TRANSFORM;
+        } else {
+            return DISCARD;
+        }
+    }
+    
+    private boolean targetedByMixin(Type classType, boolean empty) {
+        if (this.mixin == null) return false;
+        try {
+            return !this.mixin.handlesClass(classType, empty, CLASSLOADING_REASON).isEmpty();
+        } catch (RuntimeException e) {
+            // Better transform a class for nothing than miss a call added by a mixin
+            return true;
+        }
+    }
+    
+    private Module getModule(String cls) {
+        if (this.packages == null) return null;
+        int idx = cls.lastIndexOf('/');
+        return this.packages.get(idx < 0 ? "" : cls.substring(0, idx).replace('/', '.'));
+    }
+    
+    // Reads the raw class bytes from the game layer, so we can check whether
+    // the class needs to be transformed without ModLauncher building a ClassNode.
+    private byte[] readClass(Module module, String cls) {
+        try (InputStream in = module.getResourceAsStream(cls + ".class")) {
+            return in == null ? null : in.readAllBytes();
+        } catch (IOException e) {
+            return null;
         }
     }
 
     @Override
     public boolean processClass(Phase phase, ClassNode cls, Type classType) {
-        return this.loader.transform(cls);
+        // Classes that don't change are remembered in the transformation cache by their original bytes. These are
+        // read again instead of keeping them since handlesClass, as processClass is not always called afterwards.
+        return this.loader.transform(cls, () -> this.readCacheable(classType));
+    }
+
+    // Reads the original bytes of a class, if its result only depends on them
+    private byte[] readCacheable(Type classType) {
+        String cls = classType.getInternalName();
+        if (this.filter.find(cls) != null) return null;
+        Module module = this.getModule(cls);
+        if (module == null || this.targetedByMixin(classType, false)) return null;
+        return this.readClass(module, cls);
     }
 
     @Override
@@ -56,5 +157,43 @@ public class DyeLaunchService implements ILaunchPluginService {
         if (gameLayer == null) throw new IllegalStateException("Can't initialise dye, game layer not ready");
         this.loader.from(gameLayer);
         this.loader.printInfo();
+        Map<String, Module> packages = new HashMap<>();
+        for (Module module : gameLayer.modules()) {
+            for (String pkg : module.getPackages()) {
+                packages.put(pkg, module);
+            }
+        }
+        this.candidates = this.findCandidates(gameLayer, packages);
+        this.mixin = Launcher.INSTANCE.environment().findLaunchPlugin(MIXIN_PLUGIN).orElse(null);
+        this.packages = packages;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            this.loader.printStats();
+            this.loader.printProfile();
+            this.loader.disableCache();
+        }, "Dye shutdown"));
+    }
+    
+    // Finds all modules, that can read a module with bound methods. Resolving a reference to a bound method
+    // requires the calling module to read the owner, canRead already includes implied readability. Automatic
+    // modules read every module, so they are always candidates. Whether they actually reference bound methods
+    // is left to the prefilter, which checks the constant pool of each class.
+    private Set<Module> findCandidates(ModuleLayer layer, Map<String, Module> packages) {
+        Set<Module> owners = new HashSet<>();
+        for (String owner : this.loader.owners()) {
+            int idx = owner.lastIndexOf('/');
+            Module module = packages.get(idx < 0 ? "" : owner.substring(0, idx).replace('/', '.'));
+            // Bindings from outside the game layer, any module could see them
+            if (module == null) return new HashSet<>(layer.modules());
+            owners.add(module);
+        }
+        Set<Module> candidates = new HashSet<>(owners);
+        for (Module module : layer.modules()) {
+            if (!candidates.contains(module) && owners.stream().anyMatch(module::canRead)) {
+                candidates.add(module);
+            }
+        }
+        long automatic = candidates.stream().filter(module -> module.getDescriptor() != null && module.getDescriptor().isAutomatic()).count();
+        LOGGER.info("{} of {} modules in the game layer can see bound methods, {} of them are automatic modules that read every module", candidates.size(), layer.modules().size(), automatic);
+        return candidates;
     }
 }
@@ -0,0 +1,190 @@
+package io.github.noeppi_noeppi.tools.dye.loader.weaver;
+
+import io.github.noeppi_noeppi.tools.dye.loader.DyeLoader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Applies the dye transformation to jar files ahead of time. The bindings are loaded from the input jars and
+ * the classpath the same way as {@link DyeLoader#from(ClassLoader)} does. Woven jars have their {@code @Bind}
+ * stubs removed and only need the dye API at runtime.
+ *
+ * <pre>
+ * DyeWeaver --output &lt;dir&gt; [--classpath &lt;path&gt;] [--threads &lt;n&gt;] &lt;jar&gt;...
+ * </pre>
+ *
+ * Jars on the classpath only contribute bindings, they are not woven themselves.
+ */
+public class DyeWeaver {
+
+    private static final Logger LOGGER = LogManager.getLogger(DyeWeaver.class);
+
+    private final DyeLoader loader;
+    private final int threads;
+
+    public DyeWeaver(DyeLoader loader, int threads) {
+        this.loader = loader;
+        this.threads = Math.max(1, threads);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path output = null;
+        List<Path> classpath = new ArrayList<>();
+        List<Path> inputs = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--output" -> output = Path.of(argument(args, ++i));
+                case "--classpath" -> Arrays.stream(argument(args, ++i).split(java.io.File.pathSeparator))
+                        .filter(s -> !s.isEmpty()).map(Path::of).forEach(classpath::add);
+                case "--threads" -> threads = Integer.parseInt(argument(args, ++i));
+                default -> inputs.add(Path.of(args[i]));
+            }
+        }
+        if (output == null || inputs.isEmpty()) {
+            System.err.println("Usage: DyeWeaver --output <dir> [--classpath <path>] [--threads <n>] <jar>...");
+            System.exit(1);
+            return;
+        }
+
+        List<URL> urls = new ArrayList<>();
+        for (Path path : inputs) urls.add(path.toUri().toURL());
+        for (Path path : classpath) urls.add(path.toUri().toURL());
+        DyeLoader loader = new DyeLoader();
+        // Woven classes must not depend on the loader, call site ids are only valid in this JVM.
+        // So only the cache is configured from system properties and all other features stay off.
+        loader.applyCacheProperties();
+        loader.disableBootstrapFeatures();
+        try (URLClassLoader bindLoader = new URLClassLoader("dye-weaver", urls.toArray(URL[]::new), ClassLoader.getPlatformClassLoader())) {
+            loader.from(bindLoader);
+        }
+        LOGGER.info("Loaded {} dynamic method bindings.", loader.size());
+
+        Files.createDirectories(output);
+        DyeWeaver weaver = new DyeWeaver(loader, threads);
+        try {
+            for (Path input : inputs) {
+                Path target = output.resolve(input.getFileName().toString());
+                if (Files.exists(target) && Files.isSameFile(input, target)) {
+                    throw new IOException("Dye weaver: Refusing to overwrite input jar " + input);
+                }
+                weaver.weave(input, target);
+            }
+        } finally {
+            loader.disableCache();
+        }
+    }
+
+    private static String argument(String[] args, int idx) {
+        if (idx >= args.length) throw new IllegalArgumentException("Missing value for option " + args[idx - 1]);
+        return args[idx];
+    }
+
+    /**
+     * Weaves a single jar file. The entries of the output jar are written in the same order as in the input jar.
+     * If a signed jar is modified, the signature files are dropped as they are no longer valid.
+     */
+    public void weave(Path input, Path output) throws IOException {
+        long start = System.nanoTime();
+        List<ZipEntry> entries = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(input.toFile())) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                entries.add(entry);
+                try (InputStream in = zip.getInputStream(entry)) {
+                    contents.add(in.readAllBytes());
+                }
+            }
+        }
+
+        List<Callable<byte[]>> tasks = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            ZipEntry entry = entries.get(i);
+            byte[] data = contents.get(i);
+            if (isClass(entry)) {
+                tasks.add(() -> {
+                    try {
+                        return this.loader.transform(data);
+                    } catch (RuntimeException e) {
+                        throw new RuntimeException("Dye weaver: Failed to transform " + entry.getName() + " in " + input, e);
+                    }
+                });
+            } else {
+                tasks.add(() -> data);
+            }
+        }
+        List<byte[]> results = this.run(tasks);
+
+        int classes = 0;
+        int woven = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            if (isClass(entries.get(i))) {
+                classes += 1;
+                if (results.get(i) != contents.get(i)) woven += 1;
+            }
+        }
+
+        boolean dropSignatures = woven > 0 && entries.stream().anyMatch(DyeWeaver::isSignature);
+        if (dropSignatures) {
+            LOGGER.warn("{} is signed, dropping signature files from woven jar.", input);
+        }
+        try (OutputStream out = Files.newOutputStream(output); ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < entries.size(); i++) {
+                ZipEntry entry = entries.get(i);
+                if (dropSignatures && isSignature(entry)) continue;
+                ZipEntry copy = new ZipEntry(entry.getName());
+                copy.setTime(entry.getTime());
+                if (entry.getComment() != null) copy.setComment(entry.getComment());
+                zip.putNextEntry(copy);
+                if (!entry.isDirectory()) zip.write(results.get(i));
+                zip.closeEntry();
+            }
+        }
+        LOGGER.info("Wove {} of {} classes from {} into {} in {} ms.", woven, classes, input, output, (System.nanoTime() - start) / 1000000);
+    }
+
+    private List<byte[]> run(List<Callable<byte[]>> tasks) {
+        ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try {
+            List<byte[]> results = new ArrayList<>(tasks.size());
+            for (Future<byte[]> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Dye weaver: Interrupted", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static boolean isClass(ZipEntry entry) {
+        String name = entry.getName();
+        return !entry.isDirectory() && name.endsWith(".class") && !name.endsWith("module-info.class");
+    }
+
+    private static boolean isSignature(ZipEntry entry) {
+        String name = entry.getName().toUpperCase(Locale.ROOT);
+        if (!name.startsWith("META-INF/") || name.indexOf('/', 9) >= 0) return false;
+        return name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC") || name.startsWith("META-INF/SIG-");
+    }
+}
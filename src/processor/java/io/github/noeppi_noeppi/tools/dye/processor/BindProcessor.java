@@ -1,6 +1,7 @@
 package io.github.noeppi_noeppi.tools.dye.processor;
 
 import io.github.noeppi_noeppi.tools.dye.api.Bind;
+import io.github.noeppi_noeppi.tools.dye.api.BindConstant;
 import io.github.noeppi_noeppi.tools.dye.api.Dye;
 
 import javax.annotation.processing.RoundEnvironment;
@@ -13,24 +14,35 @@ import javax.tools.FileObject;
 import javax.tools.StandardLocation;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class BindProcessor extends Processor {
 
     public static final String META_FACTORY_DESCRIPTOR = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;";
     public static final String META_FACTORY_DESCRIPTOR_D = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Lio/github/noeppi_noeppi/tools/dye/api/Dynamic;)Ljava/lang/invoke/CallSite;";
+    public static final String META_FACTORY_DESCRIPTOR_A = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;";
+    public static final String META_FACTORY_DESCRIPTOR_DA = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Lio/github/noeppi_noeppi/tools/dye/api/Dynamic;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;";
+    public static final String CONSTANT_FACTORY_PREFIX = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)";
+    public static final String INDEX_HEADER = "dye-bind-index";
+    public static final int INDEX_VERSION = 1;
+    // Only used when constants are bound, so older loaders can still read other indices
+    public static final int INDEX_VERSION_CONSTANTS = 2;
+    // Only used when static arguments are present
+    public static final int INDEX_VERSION_ARGS = 3;
 
     @Override
     public Class<?>[] getTypes() {
-        return new Class<?>[]{ Bind.class };
+        return new Class<?>[]{ Bind.class, BindConstant.class };
     }
 
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
         Set<String> list = new HashSet<>();
+        Map<String, String> index = new HashMap<>();
+        boolean hasArgs = false;
         for (Element element : roundEnv.getElementsAnnotatedWith(Bind.class)) {
             if (element.getKind() != ElementKind.METHOD && element.getKind() != ElementKind.CONSTRUCTOR) {
                 messager.printMessage(Diagnostic.Kind.ERROR, "Only methods and constructors can be annotated with @Bind", element);
@@ -49,25 +61,59 @@ public class BindProcessor extends Processor {
                 } else {
                     Bind bind = element.getAnnotation(Bind.class);
                     Dye.MethodTarget metaFactory = call(() -> Dye.parse(bind.value()), element);
-                    if (metaFactory != null) {
-                        TypeElement factoryType = elements.getTypeElement(metaFactory.type().replace('/', '.'));
-                        if (!META_FACTORY_DESCRIPTOR.equals(metaFactory.descriptor()) && !META_FACTORY_DESCRIPTOR_D.equals(metaFactory.descriptor())) {
-                            messager.printMessage(Diagnostic.Kind.ERROR, "Invalid bind target: Invalid metafactory descriptor. Expected " + META_FACTORY_DESCRIPTOR + " or " + META_FACTORY_DESCRIPTOR_D, element);
-                        } else if (factoryType == null) {
-                            messager.printMessage(Diagnostic.Kind.ERROR, "Failed to find bind target: Type not found: " + metaFactory.type().replace('/', '.'), element);
-                        } else if (factoryType.getEnclosedElements().stream()
-                                .filter(e -> e.getKind() == ElementKind.METHOD)
-                                .flatMap(e -> e instanceof ExecutableElement exec ? Stream.of(exec) : Stream.empty())
-                                .filter(e -> e.getSimpleName().contentEquals(metaFactory.name()))
-                                .noneMatch(e -> e.getModifiers().contains(Modifier.STATIC))) {
-                            messager.printMessage(Diagnostic.Kind.ERROR, "Failed to find bind target: Method not found or not static: " + metaFactory.type() + "#" + metaFactory.name(), element);
-                        } else {
-                            list.add(elements.getBinaryName(parentTypeElem).toString().replace('.', '/'));
+                    List<String> args = staticArgs(element);
+                    if (metaFactory != null && args != null) {
+                        boolean withArgs = META_FACTORY_DESCRIPTOR_A.equals(metaFactory.descriptor()) || META_FACTORY_DESCRIPTOR_DA.equals(metaFactory.descriptor());
+                        if (!withArgs && !META_FACTORY_DESCRIPTOR.equals(metaFactory.descriptor()) && !META_FACTORY_DESCRIPTOR_D.equals(metaFactory.descriptor())) {
+                            messager.printMessage(Diagnostic.Kind.ERROR, "Invalid bind target: Invalid metafactory descriptor. Expected " + META_FACTORY_DESCRIPTOR + ", " + META_FACTORY_DESCRIPTOR_D + ", " + META_FACTORY_DESCRIPTOR_A + " or " + META_FACTORY_DESCRIPTOR_DA, element);
+                        } else if (!withArgs && !args.isEmpty()) {
+                            messager.printMessage(Diagnostic.Kind.ERROR, "Invalid bind target: Metafactory does not take static arguments. Expected " + META_FACTORY_DESCRIPTOR_A + " or " + META_FACTORY_DESCRIPTOR_DA, element);
+                        } else if (findFactory(metaFactory, element) && (!withArgs || checkVarArgs(metaFactory, element))) {
+                            String owner = elements.getBinaryName(parentTypeElem).toString().replace('.', '/');
+                            String name = element.getKind() == ElementKind.CONSTRUCTOR ? "<init>" : method.getSimpleName().toString();
+                            list.add(owner);
+                            String descriptor = methodDescriptor(method);
+                            if (element.getKind() == ElementKind.CONSTRUCTOR && parentTypeElem.getNestingKind() == NestingKind.MEMBER && !parentTypeElem.getModifiers().contains(Modifier.STATIC)) {
+                                // Constructors of inner classes get the outer instance as first argument
+                                descriptor = "(" + descriptor(parentTypeElem.getEnclosingElement().asType()) + descriptor.substring(1);
+                            }
+                            index.put(owner + ";" + name + descriptor, args.stream().map(arg -> "\t" + arg).collect(Collectors.joining("", metaFactory.toString(), "")));
+                            hasArgs |= !args.isEmpty();
                         }
                     }
                 }
             }
         }
+        boolean constants = false;
+        for (Element element : roundEnv.getElementsAnnotatedWith(BindConstant.class)) {
+            if (element.getKind() != ElementKind.METHOD || !(element instanceof ExecutableElement method)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Only methods can be annotated with @BindConstant", element);
+            } else if (element.getAnnotation(Bind.class) != null) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Methods can't be annotated with both @Bind and @BindConstant", element);
+            } else if (!element.getModifiers().contains(Modifier.STATIC)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Methods annotated with @BindConstant must be static", element);
+            } else if (!element.getModifiers().contains(Modifier.NATIVE)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Methods annotated with @BindConstant must be native", element);
+            } else if (!method.getParameters().isEmpty() || method.getReturnType().getKind() == TypeKind.VOID) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Methods annotated with @BindConstant must not take arguments and must not return void", element);
+            } else if (!(method.getEnclosingElement() instanceof TypeElement parentTypeElem)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Parent of element annotated with @BindConstant is not a type", element);
+            } else {
+                BindConstant bind = element.getAnnotation(BindConstant.class);
+                Dye.MethodTarget factory = call(() -> Dye.parse(bind.value()), element);
+                if (factory != null) {
+                    String returnDesc = factory.descriptor().substring(Math.min(CONSTANT_FACTORY_PREFIX.length(), factory.descriptor().length()));
+                    if (!factory.descriptor().startsWith(CONSTANT_FACTORY_PREFIX) || !(returnDesc.startsWith("L") || returnDesc.startsWith("["))) {
+                        messager.printMessage(Diagnostic.Kind.ERROR, "Invalid bind target: Invalid bootstrap descriptor. Expected " + CONSTANT_FACTORY_PREFIX + " followed by a reference type", element);
+                    } else if (findFactory(factory, element)) {
+                        String owner = elements.getBinaryName(parentTypeElem).toString().replace('.', '/');
+                        list.add(owner);
+                        index.put(owner + ";" + method.getSimpleName() + methodDescriptor(method), factory.toString());
+                        constants = true;
+                    }
+                }
+            }
+        }
         if (!list.isEmpty()) {
             try {
                 FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/dye-bind.txt");
@@ -80,9 +126,105 @@ public class BindProcessor extends Processor {
                 throw new RuntimeException(e);
             }
         }
+        if (!index.isEmpty()) {
+            // Complete index of all bindings, so the loader does not need to read the classes
+            try {
+                FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/dye-bind-index.txt");
+                Writer writer = file.openWriter();
+                writer.write(INDEX_HEADER + " " + (hasArgs ? INDEX_VERSION_ARGS : constants ? INDEX_VERSION_CONSTANTS : INDEX_VERSION) + "\n");
+                for (Map.Entry<String, String> entry : index.entrySet().stream().sorted(Map.Entry.comparingByKey()).toList()) {
+                    writer.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+                }
+                writer.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
         return true;
     }
     
+    // Checks that the type of a metafactory exists and has a static method with the given name
+    private boolean findFactory(Dye.MethodTarget factory, Element element) {
+        TypeElement factoryType = elements.getTypeElement(factory.type().replace('/', '.'));
+        if (factoryType == null) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Failed to find bind target: Type not found: " + factory.type().replace('/', '.'), element);
+            return false;
+        } else if (factoryType.getEnclosedElements().stream()
+                .filter(e -> e.getKind() == ElementKind.METHOD)
+                .flatMap(e -> e instanceof ExecutableElement exec ? Stream.of(exec) : Stream.empty())
+                .filter(e -> e.getSimpleName().contentEquals(factory.name()))
+                .noneMatch(e -> e.getModifiers().contains(Modifier.STATIC))) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Failed to find bind target: Method not found or not static: " + factory.type() + "#" + factory.name(), element);
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    // Checks that a metafactory taking static arguments has variable arity, so the JVM collects them into the array
+    private boolean checkVarArgs(Dye.MethodTarget factory, Element element) {
+        TypeElement factoryType = elements.getTypeElement(factory.type().replace('/', '.'));
+        if (factoryType.getEnclosedElements().stream()
+                .filter(e -> e.getKind() == ElementKind.METHOD && e.getSimpleName().contentEquals(factory.name()))
+                .noneMatch(e -> e instanceof ExecutableElement exec && exec.isVarArgs())) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Invalid bind target: Metafactory taking static arguments must have variable arity: " + factory.type() + "#" + factory.name(), element);
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    // Gets the static arguments of a @Bind in the format of the binding index or null if they are invalid
+    private List<String> staticArgs(Element element) {
+        AnnotationMirror bind = element.getAnnotationMirrors().stream()
+                .filter(m -> ((TypeElement) m.getAnnotationType().asElement()).getQualifiedName().contentEquals(Bind.class.getCanonicalName()))
+                .findFirst().orElse(null);
+        if (bind == null) return List.of();
+        List<String> args = new ArrayList<>();
+        boolean valid = true;
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : bind.getElementValues().entrySet()) {
+            if (!entry.getKey().getSimpleName().contentEquals("args") || !(entry.getValue().getValue() instanceof List<?> values)) continue;
+            for (Object value : values) {
+                if (!(value instanceof AnnotationValue argValue) || !(argValue.getValue() instanceof AnnotationMirror arg)) continue;
+                // Only values, that are set explicitly, are returned
+                if (arg.getElementValues().size() != 1) {
+                    messager.printMessage(Diagnostic.Kind.ERROR, "Invalid static argument: Exactly one value must be set", element, bind, entry.getValue());
+                    valid = false;
+                    continue;
+                }
+                Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> set = arg.getElementValues().entrySet().iterator().next();
+                String encoded = staticArg(set.getKey().getSimpleName().toString(), set.getValue().getValue(), element);
+                if (encoded == null) {
+                    valid = false;
+                } else {
+                    args.add(encoded);
+                }
+            }
+        }
+        return valid ? args : null;
+    }
+
+    private String staticArg(String kind, Object value, Element element) {
+        switch (kind) {
+            case "stringValue":
+                return "string:" + ((String) value).replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+            case "intValue":
+                return "int:" + value;
+            case "longValue":
+                return "long:" + value;
+            case "classValue":
+                return "class:" + descriptor((TypeMirror) value);
+            case "methodValue":
+                Dye.MethodTarget method = call(() -> Dye.parse((String) value), element);
+                if (method == null || !findFactory(method, element)) return null;
+                TypeElement owner = elements.getTypeElement(method.type().replace('/', '.'));
+                return (owner.getKind().isInterface() ? "interfaceMethod:" : "method:") + method;
+            default:
+                messager.printMessage(Diagnostic.Kind.ERROR, "Invalid static argument: Unknown value " + kind, element);
+                return null;
+        }
+    }
+
     private boolean overridesSomething(ExecutableElement method) {
         Element declaring = method.getEnclosingElement();
         if (declaring instanceof TypeElement typeElem) {
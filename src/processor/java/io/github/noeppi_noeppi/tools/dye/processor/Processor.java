@@ -6,6 +6,10 @@ import javax.annotation.processing.Messager;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.MirroredTypeException;
 import javax.lang.model.type.MirroredTypesException;
 import javax.lang.model.type.TypeKind;
@@ -82,6 +86,32 @@ public abstract class Processor extends AbstractProcessor {
         }
     }
 
+    protected String descriptor(TypeMirror type) {
+        return switch (type.getKind()) {
+            case VOID -> "V";
+            case BOOLEAN -> "Z";
+            case BYTE -> "B";
+            case CHAR -> "C";
+            case SHORT -> "S";
+            case INT -> "I";
+            case LONG -> "J";
+            case FLOAT -> "F";
+            case DOUBLE -> "D";
+            case ARRAY -> "[" + this.descriptor(((ArrayType) type).getComponentType());
+            case DECLARED -> "L" + this.elements.getBinaryName((TypeElement) ((DeclaredType) type).asElement()).toString().replace('.', '/') + ";";
+            default -> {
+                TypeMirror erased = this.types.erasure(type);
+                if (erased.getKind() == type.getKind()) throw new IllegalArgumentException("Can't create descriptor for type: " + type);
+                yield this.descriptor(erased);
+            }
+        };
+    }
+
+    protected String methodDescriptor(ExecutableElement method) {
+        return method.getParameters().stream().map(p -> this.descriptor(p.asType())).collect(Collectors.joining("", "(", ")"))
+                + this.descriptor(method.getReturnType());
+    }
+
     protected boolean isSuppressed(Element element, String warnings) {
         SuppressWarnings sw = element.getAnnotation(SuppressWarnings.class);
         if (sw != null) {
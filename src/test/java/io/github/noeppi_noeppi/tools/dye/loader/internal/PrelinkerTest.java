@@ -0,0 +1,117 @@
+package io.github.noeppi_noeppi.tools.dye.loader.internal;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrelinkerTest {
+
+    private static final Handle METAFACTORY = new Handle(Opcodes.H_INVOKESTATIC, Type.getInternalName(PrelinkerTest.class), "metafactory",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false);
+    private static final Map<String, AtomicInteger> LINKED = new ConcurrentHashMap<>();
+
+    // Site ids are global, so they must not collide with ids used by other tests
+    private static final AtomicInteger NEXT_SITE = new AtomicInteger(1 << 24);
+
+    public static CallSite metafactory(MethodHandles.Lookup lookup, String name, MethodType type) {
+        LINKED.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+        return new ConstantCallSite(MethodHandles.constant(String.class, name));
+    }
+
+    @Test
+    public void prelinkedSitesAreShared() throws Throwable {
+        Prelinker.start(4);
+        String name = "shared";
+        String target = "test/Target;shared()Ljava/lang/String;";
+        MethodType type = MethodType.methodType(String.class);
+        Prelinker.Group group = Prelinker.group("test/SharedGroup");
+        List<Integer> sites = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int site = NEXT_SITE.getAndIncrement();
+            Prelinker.record(group, site, METAFACTORY, target, true, name, type.toMethodDescriptorString(), null, List.of(), null, -1);
+            sites.add(site);
+        }
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle metaFactory = lookup.findStatic(PrelinkerTest.class, "metafactory", MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class));
+        MethodHandle shared = null;
+        for (int site : sites) {
+            CallSite callSite = DyeBootstrap.bootstrap(lookup, name, type, metaFactory, target, DyeBootstrap.SHARE | DyeBootstrap.PRELINK, site);
+            assertEquals(name, (String) callSite.getTarget().invokeExact());
+            if (shared == null) shared = callSite.getTarget();
+            assertSame(shared, callSite.getTarget(), "Call site does not use the shared target");
+        }
+        // The first call site is linked on demand and shares its target before the other sites are prelinked
+        assertEquals(1, LINKED.get(name).get(), "Metafactory invoked more than once");
+    }
+
+    @Test
+    public void takeRacesWithLink() throws Throwable {
+        Prelinker.start(4);
+        int groups = 50;
+        int sitesPerGroup = 100;
+        List<Integer> sites = new ArrayList<>();
+        Map<Integer, String> names = new HashMap<>();
+        for (int g = 0; g < groups; g++) {
+            Prelinker.Group group = Prelinker.group("test/Group" + g);
+            for (int s = 0; s < sitesPerGroup; s++) {
+                int site = NEXT_SITE.getAndIncrement();
+                String name = "site" + site;
+                Prelinker.record(group, site, METAFACTORY, "test/Target;" + name + "()Ljava/lang/String;", false, name, "()Ljava/lang/String;", null, List.of(), null, -1);
+                sites.add(site);
+                names.put(site, name);
+            }
+        }
+
+        // Every site is taken twice by different threads, while the first take of each group links the rest
+        List<Integer> order = new ArrayList<>(sites);
+        order.addAll(sites);
+        Collections.shuffle(order, new Random(42));
+        Map<Integer, CallSite> taken = new ConcurrentHashMap<>();
+        AtomicInteger duplicates = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t;
+            futures.add(executor.submit(() -> {
+                latch.await();
+                for (int i = offset; i < order.size(); i += 8) {
+                    int site = order.get(i);
+                    CallSite result = Prelinker.take(site, MethodHandles.lookup());
+                    if (result != null && taken.putIfAbsent(site, result) != null) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        latch.countDown();
+        for (Future<?> future : futures) future.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(0, duplicates.get(), "Prelinked call site taken twice");
+        for (Map.Entry<Integer, CallSite> entry : taken.entrySet()) {
+            String name = names.get(entry.getKey());
+            assertEquals(MethodType.methodType(String.class), entry.getValue().type());
+            assertEquals(name, (String) entry.getValue().getTarget().invokeExact());
+            assertEquals(1, LINKED.get(name).get(), "Metafactory of " + name + " invoked more than once");
+        }
+        for (int site : sites) {
+            // Taken or claimed, either way the entry is gone
+            assertNull(Prelinker.take(site, MethodHandles.lookup()));
+        }
+    }
+}
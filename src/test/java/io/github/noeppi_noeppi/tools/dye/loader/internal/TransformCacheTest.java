@@ -0,0 +1,157 @@
+package io.github.noeppi_noeppi.tools.dye.loader.internal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransformCacheTest {
+
+    private static final byte[] FINGERPRINT = "test".getBytes(StandardCharsets.UTF_8);
+    private static final long MAX_SIZE = 1024 * 1024;
+    private static final Duration MAX_AGE = Duration.ofDays(1);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void roundTrip() throws IOException {
+        byte[] unchanged = key(1);
+        byte[] transformed = key(2);
+        byte[] missing = key(3);
+        try (TransformCache cache = TransformCache.open(this.directory, MAX_SIZE, MAX_AGE)) {
+            assertNotNull(cache);
+            cache.put(unchanged, TransformCache.UNCHANGED);
+            cache.put(transformed, data(2, 100));
+            assertSame(TransformCache.UNCHANGED, cache.get(unchanged));
+            assertArrayEquals(data(2, 100), cache.get(transformed));
+            assertNull(cache.get(missing));
+            assertTrue(cache.isUnchanged(unchanged));
+            assertFalse(cache.isUnchanged(transformed));
+            assertFalse(cache.isUnchanged(missing));
+        }
+        try (TransformCache cache = TransformCache.open(this.directory, MAX_SIZE, MAX_AGE)) {
+            assertNotNull(cache);
+            assertSame(TransformCache.UNCHANGED, cache.get(unchanged));
+            assertArrayEquals(data(2, 100), cache.get(transformed));
+            assertNull(cache.get(missing));
+        }
+    }
+
+    @Test
+    public void keyDependsOnFeatures() {
+        byte[] cls = data(1, 100);
+        assertArrayEquals(TransformCache.key(FINGERPRINT, 0, cls), TransformCache.key(FINGERPRINT, 0, cls));
+        assertFalse(Arrays.equals(TransformCache.key(FINGERPRINT, 0, cls), TransformCache.key(FINGERPRINT, DyeBootstrap.SHARE, cls)));
+    }
+
+    @Test
+    public void secondOpenIsRejected() throws IOException {
+        try (TransformCache cache = TransformCache.open(this.directory, MAX_SIZE, MAX_AGE)) {
+            assertNotNull(cache);
+            assertNull(TransformCache.open(this.directory, MAX_SIZE, MAX_AGE));
+        }
+    }
+
+    @Test
+    public void rebuild() throws IOException {
+        // More than the initial capacity of the index can hold, so it is rebuilt while entries are added
+        int count = 20000;
+        try (TransformCache cache = TransformCache.open(this.directory, MAX_SIZE, MAX_AGE)) {
+            assertNotNull(cache);
+            for (int i = 0; i < count; i++) {
+                cache.put(key(i), i % 2 == 0 ? TransformCache.UNCHANGED : data(i, 16));
+            }
+            for (int i = 0; i < count; i++) {
+                assertEntry(cache, i);
+            }
+        }
+        try (TransformCache cache = TransformCache.open(this.directory, MAX_SIZE, MAX_AGE)) {
+            assertNotNull(cache);
+            for (int i = 0; i < count; i++) {
+                assertEntry(cache, i);
+            }
+        }
+    }
+
+    @Test
+    public void invalidIndexIsDiscarded() throws IOException {
+        try (TransformCache cache = TransformCache.open(this.directory, MAX_SIZE, MAX_AGE)) {
+            assertNotNull(cache);
+            cache.put(key(1), data(1, 100));
+        }
+        Files.write(this.directory.resolve("index.bin"), new byte[]{ 1, 2, 3 });
+        try (TransformCache cache = TransformCache.open(this.directory, MAX_SIZE, MAX_AGE)) {
+            assertNotNull(cache);
+            assertNull(cache.get(key(1)));
+            assertEquals(0, Files.size(this.directory.resolve("data.bin")));
+        }
+    }
+
+    @Test
+    public void evictByAge() throws IOException, InterruptedException {
+        try (TransformCache cache = TransformCache.open(this.directory, MAX_SIZE, MAX_AGE)) {
+            assertNotNull(cache);
+            cache.put(key(1), TransformCache.UNCHANGED);
+            cache.put(key(2), data(2, 100));
+        }
+        Thread.sleep(10);
+        try (TransformCache cache = TransformCache.open(this.directory, MAX_SIZE, Duration.ofMillis(1))) {
+            assertNotNull(cache);
+            assertNull(cache.get(key(1)));
+            assertNull(cache.get(key(2)));
+        }
+        assertEquals(0, Files.size(this.directory.resolve("data.bin")));
+    }
+
+    @Test
+    public void evictBySize() throws IOException, InterruptedException {
+        try (TransformCache cache = TransformCache.open(this.directory, MAX_SIZE, MAX_AGE)) {
+            assertNotNull(cache);
+            for (int i = 0; i < 3; i++) {
+                cache.put(key(i), data(i, 100));
+                // Entries are evicted least recently used first
+                Thread.sleep(10);
+            }
+            cache.put(key(3), TransformCache.UNCHANGED);
+        }
+        try (TransformCache cache = TransformCache.open(this.directory, 250, MAX_AGE)) {
+            assertNotNull(cache);
+            assertNull(cache.get(key(0)));
+            assertArrayEquals(data(1, 100), cache.get(key(1)));
+            assertArrayEquals(data(2, 100), cache.get(key(2)));
+            // Unchanged classes don't count towards the size
+            assertSame(TransformCache.UNCHANGED, cache.get(key(3)));
+            // Once the cache is full, new classes are not added
+            cache.put(key(4), data(4, 100));
+            assertNull(cache.get(key(4)));
+        }
+        // The data file is compacted to the classes that are left
+        assertEquals(200, Files.size(this.directory.resolve("data.bin")));
+    }
+
+    private static void assertEntry(TransformCache cache, int i) {
+        if (i % 2 == 0) {
+            assertSame(TransformCache.UNCHANGED, cache.get(key(i)), "Entry " + i);
+        } else {
+            assertArrayEquals(data(i, 16), cache.get(key(i)), "Entry " + i);
+        }
+    }
+
+    private static byte[] key(int i) {
+        return TransformCache.key(FINGERPRINT, 0, ("class " + i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] data(int i, int length) {
+        byte[] data = new byte[length];
+        for (int j = 0; j < length; j++) data[j] = (byte) (i * 31 + j);
+        return data;
+    }
+}